@@ -0,0 +1,17 @@
+package mua.jmh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// runs the benchmarks like JMH's own main, but writes the results as json to
+// jmh-result.json unless told otherwise, so that runs of different versions can
+// be compared by tools
+public class Main {
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) options.addAll(0, Arrays.asList("-rf", "json"));
+        if (!options.contains("-rff")) options.addAll(0, Arrays.asList("-rff", "jmh-result.json"));
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
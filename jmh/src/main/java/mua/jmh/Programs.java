@@ -0,0 +1,46 @@
+package mua.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.Writer;
+import java.util.Random;
+
+import mua.exec.Environment;
+import mua.exec.MuaException;
+import mua.exec.Output;
+import mua.exec.Runner;
+import mua.exec.Value;
+import mua.token.Tokenizer;
+import mua.token.TokenizerException;
+
+// mua programs the benchmarks run, and environments to run them in that read
+// nothing and print nowhere
+final class Programs {
+    static final String FIB =
+            "make \"fib [[n] [if lt :n 2 [return :n] [return add fib sub :n 1 fib sub :n 2]]]\n";
+    static final String LENGTH =
+            "make \"length [[x] [if isempty :x [return 0] [return add 1 length butfirst :x]]]\n";
+    // insertion sort
+    static final String SORT =
+            "make \"insert [[x s] [if isempty :s [return sentence :x []] [if lt :x first :s "
+            + "[return sentence :x :s] [return sentence first :s insert :x butfirst :s]]]]\n"
+            + "make \"sort [[s] [if isempty :s [return []] [return insert first :s sort butfirst :s]]]\n";
+
+    private Programs() {
+    }
+
+    static Environment environment() {
+        return new Environment(new ByteArrayInputStream(new byte[0]), new Output(Writer.nullWriter(), false));
+    }
+
+    static Value run(Environment env, String code) throws MuaException, TokenizerException {
+        return Runner.execTokens(env.globalScope, env.globalScope, Tokenizer.tokenize(code));
+    }
+
+    // make "name [...] of count numbers, the same ones every time
+    static String numbers(String name, int count) {
+        Random random = new Random(42);
+        StringBuilder buf = new StringBuilder("make \"").append(name).append(" [");
+        for (int i = 0; i < count; ++i) buf.append(i == 0 ? "" : " ").append(random.nextInt(10000));
+        return buf.append("]\n").toString();
+    }
+}
@@ -0,0 +1,68 @@
+package mua.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mua.exec.Environment;
+import mua.exec.MuaException;
+import mua.exec.Runner;
+import mua.exec.Value;
+import mua.token.Token;
+import mua.token.Tokenizer;
+
+// whole programs through Runner.execTokens, functions defined once per fork and
+// one statement calling them run per operation, parsed each time like execTokens does
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RunnerBenchmark {
+    @Param({ "fib", "length", "sort" })
+    public String program;
+
+    private Environment env;
+    private List<Token> call;
+
+    @Setup
+    public void setup() throws Exception {
+        this.env = Programs.environment();
+        String definitions, call;
+        switch (this.program) {
+            case "fib":
+                definitions = Programs.FIB;
+                call = "fib 20\n";
+                break;
+            case "length":
+                definitions = Programs.LENGTH + Programs.numbers("xs", 1000);
+                call = "length :xs\n";
+                break;
+            case "sort":
+                definitions = Programs.SORT + Programs.numbers("xs", 200);
+                call = "sort :xs\n";
+                break;
+            default:
+                throw new IllegalArgumentException(this.program);
+        }
+        Programs.run(this.env, definitions);
+        this.call = Tokenizer.tokenize(call);
+    }
+
+    @Benchmark
+    public Value execTokens() throws MuaException {
+        return Runner.execTokens(this.env.globalScope, this.env.globalScope, this.call);
+    }
+}
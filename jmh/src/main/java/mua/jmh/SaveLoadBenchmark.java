@@ -0,0 +1,70 @@
+package mua.jmh;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mua.exec.Environment;
+import mua.exec.MuaException;
+import mua.exec.Runner;
+import mua.exec.Value;
+import mua.token.Token;
+import mua.token.Tokenizer;
+
+// save and load of a global scope holding a list of size numbers, a function and a
+// few words, through a temporary file, in the format MUA_SAVE selects
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveLoadBenchmark {
+    @Param({ "100", "10000" })
+    public int size;
+
+    private Path file;
+    private Environment env;
+    private List<Token> save;
+    private List<Token> load;
+
+    @Setup
+    public void setup() throws Exception {
+        this.file = Files.createTempFile("mua-jmh", ".mua");
+        this.env = Programs.environment();
+        Programs.run(this.env, Programs.numbers("xs", this.size) + Programs.FIB
+                + "make \"name \"benchmark\nmake \"count 42\nmake \"nested [a [b [c d]] e]\n");
+        this.save = Tokenizer.tokenize(String.format("save \"%s\n", this.file));
+        this.load = Tokenizer.tokenize(String.format("load \"%s\n", this.file));
+        this.save();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(this.file);
+    }
+
+    @Benchmark
+    public Value save() throws MuaException {
+        return Runner.execTokens(this.env.globalScope, this.env.globalScope, this.save);
+    }
+
+    @Benchmark
+    public Value load() throws MuaException {
+        return Runner.execTokens(this.env.globalScope, this.env.globalScope, this.load);
+    }
+}
@@ -0,0 +1,50 @@
+package mua.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mua.token.Token;
+import mua.token.Tokenizer;
+import mua.token.TokenizerException;
+
+// lexing throughput, in operations of chars chars of source each
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+    @Param({ "4096", "1048576" })
+    public int chars;
+
+    private String source;
+
+    @Setup
+    public void setup() {
+        String program = Programs.FIB + Programs.LENGTH + Programs.SORT
+                + "print (3.14159 * :r * :r - 1,000 / 2 % 7)\n"
+                + "print word \"hello \"world\n"
+                + Programs.numbers("xs", 16);
+        StringBuilder buf = new StringBuilder(this.chars + program.length());
+        while (buf.length() < this.chars) buf.append(program);
+        this.source = buf.toString();
+    }
+
+    @Benchmark
+    public List<Token> tokenize() throws TokenizerException {
+        return Tokenizer.tokenize(this.source);
+    }
+}
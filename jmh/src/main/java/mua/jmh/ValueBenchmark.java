@@ -0,0 +1,95 @@
+package mua.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mua.exec.BooleanVal;
+import mua.exec.Environment;
+import mua.exec.FunctionVal;
+import mua.exec.ListVal;
+import mua.exec.LiteralVal;
+import mua.exec.MuaException;
+import mua.exec.NumberVal;
+import mua.exec.Value;
+
+// conversions between values. a fresh literal parses like the first conversion of
+// any word does, a kept one returns what it parsed before
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueBenchmark {
+    // not constants, so that nothing is folded away
+    public String number = "3.14";
+    public String word = "true";
+
+    private LiteralVal literal;
+    private ListVal list;
+    private ListVal function;
+
+    @Setup
+    public void setup() throws Exception {
+        this.literal = new LiteralVal(this.number);
+        Environment env = Programs.environment();
+        Programs.run(env, "make \"xs [1 2 [3 4] five six]\nmake \"inc [[n] [return add :n 1]]\n");
+        this.list = (ListVal) env.globalScope.get("xs").value;
+        this.function = (ListVal) env.globalScope.get("inc").value;
+    }
+
+    @Benchmark
+    public NumberVal freshLiteralToNumber() throws MuaException {
+        return new LiteralVal(this.number).asNumberVal();
+    }
+
+    @Benchmark
+    public NumberVal keptLiteralToNumber() throws MuaException {
+        return this.literal.asNumberVal();
+    }
+
+    @Benchmark
+    public BooleanVal freshLiteralToBoolean() throws MuaException {
+        return new LiteralVal(this.word).asBooleanVal();
+    }
+
+    @Benchmark
+    public boolean wordIsNumber() {
+        return new LiteralVal(this.word).isNumberVal();
+    }
+
+    @Benchmark
+    public ListVal literalToList() throws MuaException {
+        return this.literal.asListVal();
+    }
+
+    @Benchmark
+    public FunctionVal listToFunction() throws MuaException {
+        return this.function.asFunctionVal();
+    }
+
+    @Benchmark
+    public String numberToString() {
+        return new NumberVal(this.number.length()).toString();
+    }
+
+    @Benchmark
+    public String listToMakableString() throws MuaException {
+        return this.list.toMakableString();
+    }
+
+    @Benchmark
+    public Value listToLiteral() throws MuaException {
+        return this.list.asLiteralVal();
+    }
+}
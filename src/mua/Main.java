@@ -1,13 +1,18 @@
 package mua;
 
+import java.nio.file.Paths;
+
 import mua.exec.Environment;
 
 public class Main {
     public static void main(String[] args) throws Exception {
         try (Environment env = new Environment()) {
-            env.execAll();
+            // a file given runs instead of standard input, which read takes from
+            if (args != null && args.length > 0) env.execFile(Paths.get(args[0]));
+            else env.execAll();
         } catch (Exception e) {
             e.printStackTrace();
+            Trace.dump();
         }
     }
 }
@@ -0,0 +1,231 @@
+package mua;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import mua.exec.Value;
+
+// counters of what the interpreters in this process did, when MUA_METRICS is true
+// at startup or the mua.metrics system property is set, published as the MBean
+// mua:type=Interpreter. they are kept for the process rather than per Environment,
+// as values, tokenizing and calls know nothing of the Environment they are for.
+// callers check ENABLED first, like for Trace, so that when it is off the checks
+// fold away
+public class Metrics implements MetricsMXBean {
+    public static final boolean ENABLED = "true".equals(System.getenv("MUA_METRICS")) || Boolean.getBoolean("mua.metrics");
+    public static final String NAME = "mua:type=Interpreter";
+
+    private static final LongAdder statements = new LongAdder();
+    private static final LongAdder calls = new LongAdder();
+    private static final LongAdder tokenizedChars = new LongAdder();
+    private static final LongAdder tokenizeNanos = new LongAdder();
+    private static final LongAdder[] values = new LongAdder[Value.Kind.values().length];
+    private static final LongAdder exceptions = new LongAdder();
+    private static final LongAdder saves = new LongAdder();
+    private static final LongAdder saveBytes = new LongAdder();
+    private static final LongAdder saveNanos = new LongAdder();
+    private static final LongAdder loads = new LongAdder();
+    private static final LongAdder loadBytes = new LongAdder();
+    private static final LongAdder loadNanos = new LongAdder();
+
+    // code running nested on each thread, calls in tail position replace their
+    // caller and add nothing. current is the sum over all threads
+    private static final ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+    private static final LongAdder currentDepth = new LongAdder();
+    private static final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+
+    static {
+        for (int i = 0; i < values.length; ++i) values[i] = new LongAdder();
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), new ObjectName(NAME));
+            } catch (JMException e) {
+                System.err.printf("Cannot register metrics: %s%n", e.getMessage());
+            }
+        }
+    }
+
+    public static void statement() {
+        statements.increment();
+    }
+
+    public static void call() {
+        calls.increment();
+    }
+
+    public static void tokenized(int chars, long nanos) {
+        tokenizedChars.add(chars);
+        tokenizeNanos.add(nanos);
+    }
+
+    public static void value(Value.Kind kind) {
+        values[kind.ordinal()].increment();
+    }
+
+    public static void exception() {
+        exceptions.increment();
+    }
+
+    public static void enter() {
+        int d = ++depth.get()[0];
+        currentDepth.increment();
+        maxDepth.accumulate(d);
+    }
+
+    public static void exit() {
+        --depth.get()[0];
+        currentDepth.decrement();
+    }
+
+    // code entered on this thread and not left yet
+    public static int depth() {
+        return depth.get()[0];
+    }
+
+    // leave code down to given depth, that an exception went through
+    public static void unwind(int depth) {
+        int[] current = Metrics.depth.get();
+        currentDepth.add(depth - current[0]);
+        current[0] = depth;
+    }
+
+    // file saved or loaded, the time since start
+    public static void saved(String filename, long start) {
+        saves.increment();
+        saveNanos.add(System.nanoTime() - start);
+        saveBytes.add(size(filename));
+    }
+
+    public static void loaded(String filename, long start) {
+        loads.increment();
+        loadNanos.add(System.nanoTime() - start);
+        loadBytes.add(size(filename));
+    }
+
+    private static long size(String filename) {
+        try {
+            return Files.size(Paths.get(filename));
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public long getStatements() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getTokenizedChars() {
+        return tokenizedChars.sum();
+    }
+
+    @Override
+    public long getTokenizeNanos() {
+        return tokenizeNanos.sum();
+    }
+
+    @Override
+    public long getNumbers() {
+        return values[Value.Kind.NUMBER.ordinal()].sum();
+    }
+
+    @Override
+    public long getWords() {
+        return values[Value.Kind.WORD.ordinal()].sum();
+    }
+
+    @Override
+    public long getBooleans() {
+        return values[Value.Kind.BOOLEAN.ordinal()].sum();
+    }
+
+    @Override
+    public long getLists() {
+        return values[Value.Kind.LIST.ordinal()].sum();
+    }
+
+    @Override
+    public long getFunctions() {
+        return values[Value.Kind.FUNCTION.ordinal()].sum();
+    }
+
+    @Override
+    public long getTailCalls() {
+        return values[Value.Kind.TAIL_CALL.ordinal()].sum();
+    }
+
+    @Override
+    public long getCurrentDepth() {
+        return currentDepth.sum();
+    }
+
+    @Override
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    @Override
+    public long getExceptions() {
+        return exceptions.sum();
+    }
+
+    @Override
+    public long getSaves() {
+        return saves.sum();
+    }
+
+    @Override
+    public long getSaveBytes() {
+        return saveBytes.sum();
+    }
+
+    @Override
+    public long getSaveNanos() {
+        return saveNanos.sum();
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getLoadBytes() {
+        return loadBytes.sum();
+    }
+
+    @Override
+    public long getLoadNanos() {
+        return loadNanos.sum();
+    }
+
+    // counters back to zero, but the current depth, which code still running leaves
+    @Override
+    public void reset() {
+        statements.reset();
+        calls.reset();
+        tokenizedChars.reset();
+        tokenizeNanos.reset();
+        for (LongAdder adder : values) adder.reset();
+        exceptions.reset();
+        saves.reset();
+        saveBytes.reset();
+        saveNanos.reset();
+        loads.reset();
+        loadBytes.reset();
+        loadNanos.reset();
+        maxDepth.reset();
+    }
+}
@@ -0,0 +1,49 @@
+package mua;
+
+// what Metrics shows over JMX, times are in nanoseconds
+public interface MetricsMXBean {
+    // statements run, top level and inside functions and lists run
+    long getStatements();
+
+    // calls of functions defined in MUA
+    long getCalls();
+
+    long getTokenizedChars();
+
+    long getTokenizeNanos();
+
+    // values created, by kind
+    long getNumbers();
+
+    long getWords();
+
+    long getBooleans();
+
+    long getLists();
+
+    long getFunctions();
+
+    long getTailCalls();
+
+    // code nested on all threads now, and the most on one thread
+    long getCurrentDepth();
+
+    long getMaxDepth();
+
+    // errors raised while running or tokenizing, caught or not
+    long getExceptions();
+
+    long getSaves();
+
+    long getSaveBytes();
+
+    long getSaveNanos();
+
+    long getLoads();
+
+    long getLoadBytes();
+
+    long getLoadNanos();
+
+    void reset();
+}
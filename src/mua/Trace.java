@@ -0,0 +1,85 @@
+package mua;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// what the interpreter did last, when DEBUG is true at startup. events are a few
+// numbers each, written into a ring buffer that keeps the latest CAPACITY of them,
+// along with an object to describe them that is only turned into text when the
+// buffer is dumped, on error or when asked to. callers check ENABLED first, so that
+// when it is off nothing is computed for the event and the check folds away
+public class Trace {
+    public static final boolean ENABLED = "true".equals(System.getenv("DEBUG"));
+
+    // kinds of events, with what a and b of each are
+    public static final int EXEC = 0;           // code started, tokens, backend
+    public static final int EXEC_END = 1;       // code finished
+    public static final int LINE = 2;           // line read, length
+    public static final int TOKENIZE = 3;       // tokenized, chars, tokens
+    public static final int JIT = 4;            // compiled, tokens, bytes
+    public static final int JIT_FAILED = 5;     // not compiled, tokens
+    private static final String[] KINDS = { "exec", "end", "line", "tokenize", "jit", "jit failed" };
+
+    private static final int CAPACITY = 1 << 16;
+    // time, thread and kind, a, b
+    private static final int WORDS = 4;
+
+    private static final long[] events = ENABLED ? new long[CAPACITY * WORDS] : null;
+    private static final Object[] details = ENABLED ? new Object[CAPACITY] : null;
+    private static final AtomicLong next = new AtomicLong();
+
+    public static void event(int kind, long a, long b, Object detail) {
+        final int slot = (int) (next.getAndIncrement() & (CAPACITY - 1));
+        final int base = slot * WORDS;
+        events[base] = System.nanoTime();
+        events[base + 1] = Thread.currentThread().getId() << 8 | kind;
+        events[base + 2] = a;
+        events[base + 3] = b;
+        details[slot] = detail;
+    }
+
+    // events in the buffer, oldest first, indented by the code they happened in. an
+    // event being written while dumping may come out torn
+    public static void dump(PrintStream out) {
+        if (!ENABLED) return;
+        final long end = next.get();
+        final long start = Math.max(0, end - CAPACITY);
+        final Map<Long, Integer> levels = new HashMap<>();
+        long first = 0;
+        for (long i = start; i < end; ++i) {
+            final int slot = (int) (i & (CAPACITY - 1));
+            final int base = slot * WORDS;
+            final long time = events[base];
+            final long thread = events[base + 1] >>> 8;
+            final int kind = (int) (events[base + 1] & 0xff);
+            if (i == start) first = time;
+            int level = levels.getOrDefault(thread, 0);
+            if (kind == EXEC_END) levels.put(thread, --level);
+            out.printf("%12.3fus %4d ", (time - first) / 1e3, thread);
+            for (int j = 0; j < level; ++j) out.print("  ");
+            out.printf("%s %d %d", kind < KINDS.length ? KINDS[kind] : "?", events[base + 2], events[base + 3]);
+            if (details[slot] != null) out.printf(" %s", details[slot]);
+            out.println();
+            if (kind == EXEC) levels.put(thread, level + 1);
+        }
+        out.flush();
+    }
+
+    // dump into debug.txt, where the log used to be
+    public static void dump() {
+        if (!ENABLED) return;
+        try (OutputStream fos = Files.newOutputStream(Paths.get("debug.txt"))) {
+            PrintStream ps = new PrintStream(fos);
+            dump(ps);
+            ps.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package mua.ast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mua.exec.Feedback;
+import mua.exec.FunctionVal;
+import mua.exec.MuaException;
+import mua.exec.Operator;
+import mua.exec.Profiler;
+import mua.exec.Reference;
+import mua.exec.Runner;
+import mua.exec.Value;
+
+public class CallNode extends Node {
+    public final String name;
+    // where the function was found last time
+    public final Reference function;
+    protected final Parser parser;
+    // operand types seen when calling builtin operators
+    private final Feedback left = new Feedback();
+    private final Feedback right = new Feedback();
+
+    public CallNode(Parser parser, int start, String name) {
+        super(start);
+        this.parser = parser;
+        this.name = name;
+        this.function = new Reference(name);
+    }
+
+    // arity is only known once the function is resolved, so arguments are looked up
+    // by position as they are reached, the parser caches one node per position
+    @Override
+    public Value eval(Runner runner) throws MuaException {
+        FunctionVal fn = this.function.function(runner.globalScope, runner.localScope);
+        if (fn instanceof Operator && !Profiler.ENABLED) return this.operate(runner, (Operator) fn);
+        return this.finish(runner, fn, new ArrayList<>(fn.paramsCount()), this.start + 1);
+    }
+
+    // builtin operators skip building the list of parameters, and take operands the
+    // way their types seen so far allow
+    private Value operate(Runner runner, Operator op) throws MuaException {
+        Value a = this.parser.node(this.start + 1).eval(runner);
+        Value b = this.parser.node(runner.index).eval(runner);
+        int index = runner.index;
+        Value value = op.apply(a, b, this.left, this.right);
+        runner.index = index;
+        return value;
+    }
+
+    // evaluate remaining arguments from index on and call, compiled code continues
+    // here when the arguments stop matching the layout it was compiled for
+    public Value finish(Runner runner, FunctionVal fn, List<Value> params, int index) throws MuaException {
+        final int count = fn.paramsCount();
+        while (params.size() < count) {
+            params.add(this.parser.node(index).eval(runner));
+            index = runner.index;
+        }
+        Value value;
+        if (this.start == runner.tail && (runner.anywhere || index == this.parser.size())) {
+            value = fn.runTail(runner.globalScope, runner.localScope, params);
+        } else {
+            value = fn.run(runner.globalScope, runner.localScope, params);
+        }
+        runner.index = index;
+        return value;
+    }
+}
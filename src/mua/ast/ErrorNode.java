@@ -0,0 +1,21 @@
+package mua.ast;
+
+import mua.exec.MuaException;
+import mua.exec.Runner;
+import mua.exec.Value;
+
+// malformed code is only reported when reached, so that everything before it
+// still runs, just like when interpreting tokens one by one
+public class ErrorNode extends Node {
+    public final String message;
+
+    public ErrorNode(int start, String message) {
+        super(start);
+        this.message = message;
+    }
+
+    @Override
+    public Value eval(Runner runner) throws MuaException {
+        throw new MuaException(this.message);
+    }
+}
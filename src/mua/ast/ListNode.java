@@ -0,0 +1,25 @@
+package mua.ast;
+
+import mua.exec.ListVal;
+import mua.exec.Runner;
+import mua.exec.Value;
+
+public class ListNode extends Node {
+    // lists are immutable as well, which also keeps the compiled form of
+    // `if` branches alive between executions
+    public final ListVal value;
+    // index after the matching right bracket
+    public final int end;
+
+    public ListNode(int start, int end, ListVal value) {
+        super(start);
+        this.end = end;
+        this.value = value;
+    }
+
+    @Override
+    public Value eval(Runner runner) {
+        runner.index = this.end;
+        return this.value;
+    }
+}
@@ -0,0 +1,21 @@
+package mua.ast;
+
+import mua.exec.LiteralVal;
+import mua.exec.Runner;
+import mua.exec.Value;
+
+public class LiteralNode extends Node {
+    // literals are immutable, so one instance is shared by all executions
+    public final LiteralVal value;
+
+    public LiteralNode(int start, String word) {
+        super(start);
+        this.value = new LiteralVal(word);
+    }
+
+    @Override
+    public Value eval(Runner runner) {
+        runner.index = this.start + 1;
+        return this.value;
+    }
+}
@@ -0,0 +1,61 @@
+package mua.ast;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+
+import mua.exec.Feedback;
+import mua.exec.MuaException;
+import mua.exec.NumberVal;
+import mua.exec.Value;
+
+public class MathOp {
+    public enum Associativity {
+        LEFT, RIGHT
+    }
+
+    public final int ops;
+    public final int priority;
+    public final Associativity associativity;
+    private final DoubleBinaryOperator fn;
+
+    private MathOp(int ops, int priority, Associativity associativity, DoubleBinaryOperator fn) {
+        this.ops = ops;
+        this.priority = priority;
+        this.associativity = associativity;
+        this.fn = fn;
+    }
+
+    // if left associative, operators with same priority can be evaluated, so don't
+    // increase threshold, otherwise increase one to avoid evaluation in advance
+    public int threshold() {
+        return this.priority + (this.associativity == Associativity.LEFT ? 0 : 1);
+    }
+
+    public Value calc(Value op1, Value op2) throws MuaException {
+        return this.calc(op1, op2, Feedback.NONE, Feedback.NONE);
+    }
+
+    // operand 2 is converted first
+    public Value calc(Value op1, Value op2, Feedback f1, Feedback f2) throws MuaException {
+        double b = f2.number(op2);
+        double a = f1.number(op1);
+        return new NumberVal(this.fn.applyAsDouble(a, b));
+    }
+
+    private static final Map<String, MathOp> operators = new HashMap<>();
+
+    static {
+        MathOp.operators.put("+", new MathOp(2, 1, Associativity.LEFT, (a, b) -> a + b));
+        MathOp.operators.put("-", new MathOp(2, 1, Associativity.LEFT, (a, b) -> a - b));
+        MathOp.operators.put("*", new MathOp(2, 2, Associativity.LEFT, (a, b) -> a * b));
+        MathOp.operators.put("/", new MathOp(2, 2, Associativity.LEFT, (a, b) -> a / b));
+        MathOp.operators.put("%", new MathOp(2, 2, Associativity.LEFT, (a, b) -> a % b));
+    }
+
+    public static MathOp get(String op) throws MuaException {
+        MathOp mop = MathOp.operators.get(op);
+        if (mop == null) throw new MuaException(String.format("Unknown operator \"%s\"", op));
+        return mop;
+    }
+}
@@ -0,0 +1,21 @@
+package mua.ast;
+
+import mua.exec.MuaException;
+import mua.exec.NumberVal;
+import mua.exec.Runner;
+import mua.exec.Value;
+
+// '-' outside of parentheses, or where an operand is expected inside them
+public class NegateNode extends Node {
+    public final Node operand;
+
+    public NegateNode(int start, Node operand) {
+        super(start);
+        this.operand = operand;
+    }
+
+    @Override
+    public Value eval(Runner runner) throws MuaException {
+        return new NumberVal(-this.operand.eval(runner).asNumberVal().content);
+    }
+}
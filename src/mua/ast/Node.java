@@ -0,0 +1,18 @@
+package mua.ast;
+
+import mua.exec.MuaException;
+import mua.exec.Runner;
+import mua.exec.Value;
+
+public abstract class Node {
+    // index of the first token of this node
+    public final int start;
+
+    protected Node(int start) {
+        this.start = start;
+    }
+
+    // evaluate node, leaving runner.index right after the last token consumed,
+    // which is only known after evaluation since it depends on function arities
+    public abstract Value eval(Runner runner) throws MuaException;
+}
@@ -0,0 +1,201 @@
+package mua.ast;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+import mua.exec.Feedback;
+import mua.exec.MuaException;
+import mua.exec.Runner;
+import mua.exec.Value;
+import mua.token.MathToken;
+import mua.token.Token;
+
+public class ParenNode extends Node {
+    // one operand or operator of the expression, end is the index after it
+    private static class Item {
+        public final int start;
+        public final int end;
+        public final Node operand;
+        public final MathOp op;
+        // operand types seen by the operator in plans
+        public final Feedback left;
+        public final Feedback right;
+
+        public Item(int start, int end, Node operand, MathOp op) {
+            this.start = start;
+            this.end = end;
+            this.operand = operand;
+            this.op = op;
+            this.left = op == null ? null : new Feedback();
+            this.right = op == null ? null : new Feedback();
+        }
+    }
+
+    // layout of the expression seen by the last complete evaluation, compiled into
+    // postfix order, which evaluates operands and applies operators in exactly the
+    // same order as collapsing the stacks of the shunting-yard does
+    private static class Plan {
+        public final Item[] items;
+        public final int[] program;
+        public final int depth;
+        public final int end;
+
+        public Plan(List<Item> items, int end) {
+            this.items = items.toArray(new Item[0]);
+            this.program = new int[this.items.length];
+            this.end = end;
+            Stack<Integer> opStack = new Stack<>();
+            int size = 0, depth = 0, maxDepth = 0;
+            for (int i = 0; i < this.items.length; ++i) {
+                MathOp op = this.items[i].op;
+                if (op == null) {
+                    this.program[size++] = i;
+                    maxDepth = Math.max(maxDepth, ++depth);
+                    continue;
+                }
+                while (!opStack.isEmpty() && this.items[opStack.peek()].op.priority >= op.threshold()) {
+                    this.program[size++] = opStack.pop();
+                    --depth;
+                }
+                opStack.push(i);
+            }
+            while (!opStack.isEmpty()) this.program[size++] = opStack.pop();
+            this.depth = maxDepth;
+        }
+    }
+
+    private static class MathLayer {
+        public Stack<Value> valueStack = new Stack<>();
+        public Stack<MathOp> opStack = new Stack<>();
+        // see comments in run()
+        public int opExpectation = 1;
+    }
+
+    private final Parser parser;
+    private Plan plan = null;
+
+    public ParenNode(Parser parser, int start) {
+        super(start);
+        this.parser = parser;
+    }
+
+    @Override
+    public Value eval(Runner runner) throws MuaException {
+        final Plan plan = this.plan;
+        if (plan == null) return this.run(runner, new MathLayer(), new ArrayList<>(), this.start + 1);
+        Value[] stack = new Value[plan.depth];
+        int size = 0;
+        for (int i : plan.program) {
+            Item item = plan.items[i];
+            if (item.op != null) {
+                Value op2 = stack[--size];
+                stack[size - 1] = item.op.calc(stack[size - 1], op2, item.left, item.right);
+                continue;
+            }
+            Value value = item.operand.eval(runner);
+            // the operand consumed a different number of tokens since a function changed
+            // its arity, or it gave no value, the layout from here on may differ
+            if (value == null || runner.index != item.end) return this.resume(runner, plan, i, stack, size, value);
+            stack[size++] = value;
+        }
+        runner.index = plan.end;
+        return stack[0];
+    }
+
+    // continue with the shunting-yard from the operand at given item, rebuilding the
+    // stacks it would have at that point
+    private Value resume(Runner runner, Plan plan, int index, Value[] stack, int size, Value value) throws MuaException {
+        MathLayer layer = new MathLayer();
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < index; ++i) {
+            Item item = plan.items[i];
+            items.add(item);
+            if (item.op == null) {
+                --layer.opExpectation;
+                continue;
+            }
+            // operators popped here have already been applied to the values in stack
+            while (!layer.opStack.isEmpty() && layer.opStack.peek().priority >= item.op.threshold()) {
+                layer.opStack.pop();
+            }
+            layer.opStack.push(item.op);
+            layer.opExpectation += item.op.ops - 1;
+        }
+        for (int i = 0; i < size; ++i) layer.valueStack.push(stack[i]);
+        if (value == null) {
+            items = null;
+        } else {
+            layer.valueStack.push(value);
+            --layer.opExpectation;
+            items.add(new Item(plan.items[index].start, runner.index, plan.items[index].operand, null));
+        }
+        return this.run(runner, layer, items, runner.index);
+    }
+
+    // collapse current expression by evaluating all operators with
+    // priority >= priorityThres
+    private static void collapse(MathLayer layer, int priorityThres) throws MuaException {
+        while (!layer.opStack.isEmpty() && layer.opStack.peek().priority >= priorityThres) {
+            MathOp op = layer.opStack.pop();
+            if (layer.valueStack.isEmpty()) throw new MuaException("Not enough operands");
+            Value op2 = layer.valueStack.pop();
+            if (layer.valueStack.isEmpty()) {
+                // operand 2 is converted before operand 1 is found missing
+                op2.asNumberVal();
+                throw new MuaException("Not enough operands");
+            }
+            layer.valueStack.push(op.calc(layer.valueStack.pop(), op2));
+        }
+    }
+
+    // shunting-yard over items parsed as they are reached, starting at index, which
+    // records items to build a plan from unless they are null
+    private Value run(Runner runner, MathLayer layer, List<Item> items, int index) throws MuaException {
+        while (true) {
+            Token token = this.parser.get(index);
+            if (token instanceof MathToken) {
+                String op = ((MathToken) token).op;
+                // right paren, finish the calculation, minimum priority is 1 so collapses all operators
+                if (op.equals(")")) {
+                    collapse(layer, 0);
+                    if (layer.valueStack.size() != 1 || layer.opStack.size() != 0)
+                        throw new MuaException("Malformed mathematical expression");
+                    runner.index = index + 1;
+                    if (items != null) this.plan = new Plan(items, index + 1);
+                    return layer.valueStack.pop();
+                }
+                // about opExpectation:
+                // opExpectation lets us know whether the next value should be operator or operand,
+                // to decide whether '-' is minus or negate. opExpectation is initially 1, and
+                // increases (ops - 1) on each operator, decreases 1 on each operand.
+                // normally, opExpectation should be either 0 or 1, since we're not expecting to support
+                // tenary operators, so if it's 0, we know that '-' must be minus (otherwise it becomes
+                // -1), if it's 1, '-' must be negate (otherwise it becomes 2).
+                boolean negate = op.equals("-") && layer.opExpectation == 1;
+                if (!op.equals("(") && !negate) {
+                    MathOp mop = MathOp.get(op);
+                    collapse(layer, mop.threshold());
+                    layer.opStack.push(mop);
+                    layer.opExpectation += mop.ops - 1;
+                    if (items != null) items.add(new Item(index, index + 1, null, mop));
+                    ++index;
+                    continue;
+                }
+            }
+            // exec value, whether function, pure value, list, negation or expression
+            Node operand = this.parser.node(index);
+            Value value = operand.eval(runner);
+            // values that are null are not pushed, which affects how '-' is treated
+            // afterwards, so such layouts are not planned
+            if (value == null) {
+                items = null;
+            } else {
+                layer.valueStack.push(value);
+                --layer.opExpectation;
+                if (items != null) items.add(new Item(index, runner.index, operand, null));
+            }
+            index = runner.index;
+        }
+    }
+}
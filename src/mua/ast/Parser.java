@@ -0,0 +1,148 @@
+package mua.ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import mua.exec.ListVal;
+import mua.exec.LiteralVal;
+import mua.exec.MuaException;
+import mua.exec.Value;
+import mua.token.BracketToken;
+import mua.token.MathToken;
+import mua.token.OpToken;
+import mua.token.Token;
+import mua.token.WordToken;
+import mua.token.BracketToken.Type;
+
+// builds nodes on demand, since how far a function call reaches is only known at
+// runtime, a node is parsed when execution first reaches its position, and then
+// kept for all later executions reaching the same position. code read as it runs
+// takes more tokens from its source whenever execution reaches past the end of them
+public class Parser {
+    // tokens of code read as it runs, never ending within a list
+    @FunctionalInterface
+    public interface Source {
+        // next tokens, possibly none, or null at the end of input
+        List<Token> more() throws MuaException;
+    }
+
+    private Token[] tokens;
+    private Node[] nodes;
+    private int size;
+    private Source source;
+
+    public Parser(List<Token> tokens) {
+        this(tokens.toArray(new Token[0]), tokens.size(), null);
+    }
+
+    public Parser(Source source) {
+        this(new Token[16], 0, source);
+    }
+
+    private Parser(Token[] tokens, int size, Source source) {
+        this.tokens = tokens;
+        this.nodes = new Node[tokens.length];
+        this.size = size;
+        this.source = source;
+    }
+
+    // number of tokens read so far
+    public int size() {
+        return this.size;
+    }
+
+    // whether there is a token at index, reading more from the source if needed
+    public boolean has(int index) throws MuaException {
+        while (index >= this.size && this.source != null) {
+            List<Token> tokens = this.source.more();
+            if (tokens == null) {
+                this.source = null;
+                break;
+            }
+            if (this.size + tokens.size() > this.tokens.length) {
+                int length = Math.max(this.tokens.length * 2, this.size + tokens.size());
+                this.tokens = Arrays.copyOf(this.tokens, length);
+                this.nodes = Arrays.copyOf(this.nodes, length);
+            }
+            for (Token token : tokens) this.tokens[this.size++] = token;
+        }
+        return index < this.size;
+    }
+
+    // parser of the tokens from index on, reading from the same source, so that
+    // code read as it runs does not keep what it has run
+    public Parser rest(int index) {
+        Token[] tokens = Arrays.copyOfRange(this.tokens, index, Math.max(index + 16, this.size));
+        return new Parser(tokens, this.size - index, this.source);
+    }
+
+    public Token get(int index) throws MuaException {
+        if (!this.has(index)) throw new MuaException("Unexpected end of input");
+        return this.tokens[index];
+    }
+
+    // node of value starting at index, outside of math expressions
+    public Node node(int index) {
+        try {
+            if (!this.has(index)) return new ErrorNode(index, "Unexpected end of input");
+        } catch (MuaException e) {
+            return new ErrorNode(index, e.getMessage());
+        }
+        Node node = this.nodes[index];
+        if (node == null) {
+            node = this.parse(index);
+            this.nodes[index] = node;
+        }
+        return node;
+    }
+
+    private Node parse(int index) {
+        Token first = this.tokens[index];
+        if (first instanceof WordToken) {
+            return new LiteralNode(index, ((WordToken) first).value);
+        } else if (first instanceof BracketToken && ((BracketToken) first).type == Type.LEFT) {
+            return this.parseList(index);
+        } else if (first instanceof OpToken) {
+            String name = ((OpToken) first).name;
+            // keywords
+            if (name.equals("return")) return new ReturnNode(index, this.node(index + 1));
+            if (name.equals("thing") && index + 1 < this.size && this.tokens[index + 1] instanceof WordToken) {
+                return new ThingNode(this, index, ((WordToken) this.tokens[index + 1]).value);
+            }
+            // other op, considered function
+            return new CallNode(this, index, name);
+        } else if (first instanceof MathToken) {
+            switch (((MathToken) first).op) {
+                case "(":
+                    return new ParenNode(this, index);
+                case ")":
+                    return new ErrorNode(index, "Unexpected token \")\"");
+                // '-' is negate outside of parens
+                case "-":
+                    return new NegateNode(index, this.node(index + 1));
+                default:
+                    return new ErrorNode(index, "Math expressions must be within parentheses");
+            }
+        } else return new ErrorNode(index, String.format("Unexpected token: %s", first));
+    }
+
+    // index at left bracket, the list ends after the matching right bracket
+    private Node parseList(int start) {
+        List<Value> elements = new ArrayList<>();
+        int index = start + 1;
+        for (; index < this.size; ++index) {
+            Token token = this.tokens[index];
+            if (token instanceof WordToken) {
+                elements.add(new LiteralVal(((WordToken) token).value));
+            } else if (token instanceof BracketToken) {
+                if (((BracketToken) token).type == Type.RIGHT) break;
+                Node list = this.parseList(index);
+                if (!(list instanceof ListNode)) return list;
+                elements.add(((ListNode) list).value);
+                index = ((ListNode) list).end - 1;
+            } else return new ErrorNode(index, String.format("Unexpected token: %s", token));
+        }
+        return new ListNode(start, index + 1, new ListVal(elements));
+    }
+}
@@ -0,0 +1,28 @@
+package mua.ast;
+
+import mua.exec.MuaException;
+import mua.exec.Runner;
+import mua.exec.Value;
+
+public class ReturnNode extends Node {
+    public final Node operand;
+
+    public ReturnNode(int start, Node operand) {
+        super(start);
+        this.operand = operand;
+    }
+
+    @Override
+    public Value eval(Runner runner) throws MuaException {
+        // TODO: return should be first one of statement
+        if (!runner.localScope.inFunction) throw new MuaException("Cannot return outside of a function");
+        // nothing runs after a return at the start of a statement
+        if (runner.tail == this.start) {
+            runner.tail = this.operand.start;
+            runner.anywhere = true;
+        }
+        Value value = this.operand.eval(runner);
+        runner.shouldReturn = true;
+        return value;
+    }
+}
@@ -0,0 +1,27 @@
+package mua.ast;
+
+import mua.exec.MuaException;
+import mua.exec.Reference;
+import mua.exec.Runner;
+import mua.exec.Value;
+
+// `thing "name` and `:name`, looked up directly instead of calling the builtin
+public class ThingNode extends CallNode {
+    public final String variable;
+    private final Reference reference;
+
+    public ThingNode(Parser parser, int start, String variable) {
+        super(parser, start, "thing");
+        this.variable = variable;
+        this.reference = new Reference(variable);
+    }
+
+    @Override
+    public Value eval(Runner runner) throws MuaException {
+        // unless a function shadows `thing` with a local variable, it is the builtin
+        if (this.function.shadowed(runner.globalScope, runner.localScope)) return super.eval(runner);
+        Value value = this.reference.value(runner.globalScope, runner.localScope);
+        runner.index = this.start + 2;
+        return value;
+    }
+}
@@ -0,0 +1,30 @@
+package mua.bench;
+
+import java.lang.management.ManagementFactory;
+
+// tiny harness for microbenchmarks run from main(), reports time and bytes allocated
+// by the current thread per operation, after warmup runs of the same size
+public class Bench {
+    @FunctionalInterface
+    public interface Body {
+        // run given number of operations, returning anything to keep it from being optimized away
+        Object run(int ops) throws Exception;
+    }
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final int WARMUP = 5;
+
+    public static Object sink;
+
+    public static void measure(String name, int ops, Body body) throws Exception {
+        for (int i = 0; i < WARMUP; ++i) sink = body.run(ops);
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        long time = System.nanoTime();
+        sink = body.run(ops);
+        time = System.nanoTime() - time;
+        bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+        System.out.printf("%-40s %10.1f ns/op %10.1f B/op%n", name, (double) time / ops, (double) bytes / ops);
+    }
+}
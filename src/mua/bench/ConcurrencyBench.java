@@ -0,0 +1,141 @@
+package mua.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// many environments running at once in one process, each thread running the
+// programs in workloads/ over and over, every run in a fresh environment with its
+// own input, output and scratch directory, and checking what each printed. for 1,
+// 2, 4... threads up to twice the processors, it reports rounds of all programs run
+// a second, and how that scales from one thread, which should be about linear up
+// to the number of processors. environments seeing each other's variables, input
+// or output would print something wrong, which fails it
+//
+// usage: ConcurrencyBench [dir] [--seconds n] [--threads n]
+// exits with 1 if any output is wrong
+public class ConcurrencyBench {
+    private static class Workload {
+        final String name;
+        final byte[] in;
+        final List<String> expected;
+
+        Workload(Path dir) throws Exception {
+            this.name = dir.getFileName().toString();
+            this.in = Files.readAllBytes(dir.resolve("in"));
+            this.expected = Files.readAllLines(dir.resolve("stdout"));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get("workloads");
+        double seconds = 5;
+        final int processors = Runtime.getRuntime().availableProcessors();
+        int maxThreads = processors * 2;
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--seconds": seconds = Double.parseDouble(args[++i]); break;
+                case "--threads": maxThreads = Integer.parseInt(args[++i]); break;
+                default: dir = Paths.get(args[i]); break;
+            }
+        }
+
+        List<Workload> workloads = new ArrayList<>();
+        for (Path path : WorkloadRunner.workloads(dir)) workloads.add(new Workload(path));
+        // warm up on one thread, so that the first measurement is not the slowest
+        // for no reason of its own
+        Path scratch = Files.createTempDirectory("mua-concurrency");
+        try {
+            for (int i = 0; i < 2; ++i) {
+                for (Workload workload : workloads) {
+                    WorkloadRunner.check(workload.expected, WorkloadRunner.run(workload.in, scratch));
+                }
+            }
+        } finally {
+            WorkloadRunner.delete(scratch);
+        }
+
+        System.out.printf("%d processors, %d workloads, %.1f s each%n", processors, workloads.size(), seconds);
+        System.out.printf("%-8s %10s %12s %10s %12s%n", "threads", "rounds", "rounds/s", "speedup", "efficiency");
+        boolean failed = false;
+        double single = 0;
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) counts.add(threads);
+        counts.add(maxThreads);
+        for (int threads : counts) {
+            long[] rounds = new long[1];
+            double rate;
+            try {
+                rate = stress(workloads, threads, (long) (seconds * 1e9), rounds);
+            } catch (Exception e) {
+                System.out.printf("%-8d FAIL: %s%n", threads, e.getMessage());
+                failed = true;
+                continue;
+            }
+            if (threads == 1) single = rate;
+            double speedup = single > 0 ? rate / single : 0;
+            System.out.printf("%-8d %10d %12.2f %9.2fx %11.0f%%%n", threads, rounds[0], rate, speedup,
+                    speedup / Math.min(threads, processors) * 100);
+        }
+        if (failed) System.exit(1);
+    }
+
+    // rounds a second of threads running every workload, each thread starting at a
+    // different one, until the time is up. rounds are never cut short, the time is
+    // until the last one finishes
+    private static double stress(List<Workload> workloads, int threads, long nanos, long[] rounds) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                final int first = t;
+                futures.add(pool.submit(() -> {
+                    Path scratch = Files.createTempDirectory("mua-concurrency");
+                    try {
+                        start.await();
+                        final long deadline = System.nanoTime() + nanos;
+                        long count = 0;
+                        do {
+                            for (int i = 0; i < workloads.size(); ++i) {
+                                Workload workload = workloads.get((first + i) % workloads.size());
+                                String output = WorkloadRunner.run(workload.in, scratch);
+                                try {
+                                    WorkloadRunner.check(workload.expected, output);
+                                } catch (IllegalStateException e) {
+                                    throw new IllegalStateException(String.format("%s: %s", workload.name, e.getMessage()));
+                                }
+                            }
+                            ++count;
+                        } while (System.nanoTime() < deadline);
+                        return count;
+                    } finally {
+                        WorkloadRunner.delete(scratch);
+                    }
+                }));
+            }
+            long time = System.nanoTime();
+            start.countDown();
+            long total = 0;
+            for (Future<Long> future : futures) {
+                try {
+                    total += future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+                }
+            }
+            time = System.nanoTime() - time;
+            rounds[0] = total;
+            return total / (time / 1e9);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package mua.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.Writer;
+import java.util.List;
+
+import mua.exec.Environment;
+import mua.exec.Output;
+import mua.exec.Runner;
+import mua.token.Token;
+import mua.token.Tokenizer;
+
+// what an environment costs to create, and to run a first statement in, and the
+// heap each one keeps while alive, for batches of different sizes
+public class EnvironmentBench {
+    private static final byte[] NO_INPUT = new byte[0];
+
+    private static Environment create() {
+        return new Environment(new ByteArrayInputStream(NO_INPUT), new Output(Writer.nullWriter(), false));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Bench.measure("create", 100_000, ops -> {
+            Environment env = null;
+            for (int i = 0; i < ops; ++i) env = create();
+            return env;
+        });
+        final List<Token> code = Tokenizer.tokenize("make \"x 1 print add :x 1\n");
+        Bench.measure("create and run", 100_000, ops -> {
+            Environment env = null;
+            for (int i = 0; i < ops; ++i) {
+                env = create();
+                Runner.execTokens(env.globalScope, env.globalScope, code);
+            }
+            return env;
+        });
+        for (int count : new int[] { 1_000, 10_000, 50_000 }) {
+            System.out.printf("%-40s %10.1f B/env%n", String.format("retained, %d alive", count), retained(count));
+        }
+    }
+
+    // heap in use with count environments alive, less the heap in use without them
+    private static double retained(int count) {
+        Environment[] envs = new Environment[count];
+        long before = used();
+        for (int i = 0; i < count; ++i) envs[i] = create();
+        long after = used();
+        Bench.sink = envs;
+        return (double) (after - before) / count;
+    }
+
+    private static long used() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,37 @@
+package mua.bench;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import mua.exec.Input;
+
+// what read and readlist cost per word on input of hundreds of thousands of words,
+// through the same buffer for both
+public class InputBench {
+    private static final int LINES = 50_000;
+    private static final int WORDS = 8;
+
+    public static void main(String[] args) throws Exception {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < LINES; ++i) {
+            for (int j = 0; j < WORDS; ++j) buf.append(j == 0 ? "" : " ").append("word").append(i * WORDS + j);
+            buf.append('\n');
+        }
+        byte[] input = buf.toString().getBytes(StandardCharsets.UTF_8);
+        int words = LINES * WORDS;
+        Bench.measure("read, per word", words, ops -> {
+            int count = 0;
+            try (Input in = new Input(new ByteArrayInputStream(input))) {
+                while (in.readWord() != null) ++count;
+            }
+            return count;
+        });
+        Bench.measure("readlist, per word", words, ops -> {
+            int count = 0;
+            try (Input in = new Input(new ByteArrayInputStream(input))) {
+                while (in.hasNextLine()) count += in.readList().elements.size();
+            }
+            return count;
+        });
+    }
+}
@@ -0,0 +1,60 @@
+package mua.bench;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import mua.exec.Environment;
+import mua.exec.LiteralVal;
+import mua.exec.Value;
+
+// conversions of literals, a fresh literal each time parses like every conversion
+// used to, while a literal kept by code converts to the same instance after the first
+public class LiteralBench {
+    private static final int OPS = 2_000_000;
+    // not constants, so that nothing is folded away
+    private static final String[] NUMBERS = { "42", "-1", "3.14", "100" };
+    private static final String[] BOOLEANS = { "true", "false", "true", "true" };
+
+    public static void main(String[] args) throws Exception {
+        Bench.measure("number, fresh literal", OPS, ops -> {
+            double sum = 0;
+            for (int i = 0; i < ops; ++i) sum += new LiteralVal(NUMBERS[i & 3]).asNumberVal().content;
+            return sum;
+        });
+        LiteralVal number = new LiteralVal("42");
+        Bench.measure("number, same literal", OPS, ops -> {
+            double sum = 0;
+            for (int i = 0; i < ops; ++i) sum += number.asNumberVal().content;
+            return sum;
+        });
+        Bench.measure("boolean, fresh literal", OPS, ops -> {
+            int count = 0;
+            for (int i = 0; i < ops; ++i) if (new LiteralVal(BOOLEANS[i & 3]).asBooleanVal().content) ++count;
+            return count;
+        });
+        LiteralVal bool = new LiteralVal("true");
+        Bench.measure("boolean, same literal", OPS, ops -> {
+            int count = 0;
+            for (int i = 0; i < ops; ++i) if (bool.asBooleanVal().content) ++count;
+            return count;
+        });
+        Value word = new LiteralVal("abc");
+        Bench.measure("isnumber, word", OPS, ops -> {
+            int count = 0;
+            for (int i = 0; i < ops; ++i) if (word.isNumberVal()) ++count;
+            return count;
+        });
+
+        // recursive counter comparing against and adding literals on each step,
+        // per step of the recursion
+        final int steps = 20_000;
+        String counter = "make \"cnt [[n acc] [if eq :n 0 [return :acc] [return cnt sub :n 1 add :acc 1]]]\n"
+                + "make \"r cnt " + steps + " 0\n";
+        Bench.measure("counter script, per step", steps, ops -> {
+            try (Environment env = new Environment(new ByteArrayInputStream(counter.getBytes(StandardCharsets.UTF_8)))) {
+                env.execAll();
+                return env.globalScope.get("r").value;
+            }
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package mua.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import mua.exec.Environment;
+import mua.exec.Output;
+
+// a file run, and loaded, with a MUA_CACHE that cannot be written to still runs,
+// only without caching. the cache directory is read at startup, so each case runs
+// in a process of its own: one where the directory is removed after startup, one
+// where it is read only, which is skipped when that does not keep us from writing
+// to it, as for root
+//
+// exits with 1 if any output is wrong
+public class ScriptCacheCheck {
+    private static final String SCRIPT = "make \"a 1\nprint :a\nprint add :a 4\n";
+    private static final String EXPECTED = "1\n5.0\n";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--child")) {
+            child(args[1], Paths.get(args[2]));
+            return;
+        }
+        Path dir = Files.createTempDirectory("mua-cache-check");
+        boolean failed = false;
+        try {
+            Path script = dir.resolve("script.mua");
+            Files.write(script, SCRIPT.getBytes(StandardCharsets.UTF_8));
+            for (String mode : new String[] { "removed", "readonly" }) {
+                Path cache = dir.resolve(mode);
+                Files.createDirectory(cache);
+                if (mode.equals("readonly")) {
+                    cache.toFile().setWritable(false);
+                    if (Files.isWritable(cache)) {
+                        System.out.printf("%-12s skipped, read only directories are writable here%n", mode);
+                        continue;
+                    }
+                }
+                String output = run(cache, mode, script);
+                String expected = EXPECTED + EXPECTED;
+                if (output.equals(expected)) {
+                    System.out.printf("%-12s OK%n", mode);
+                } else {
+                    System.out.printf("%-12s FAIL: expected %s, got %s%n", mode, expected.replace("\n", " "), output.replace("\n", " "));
+                    failed = true;
+                }
+            }
+        } finally {
+            dir.resolve("readonly").toFile().setWritable(true);
+            WorkloadRunner.delete(dir);
+        }
+        if (failed) System.exit(1);
+    }
+
+    // what the child printed to standard output, warnings go to standard error
+    private static String run(Path cache, String mode, Path script) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ScriptCacheCheck.class.getName());
+        command.add("--child");
+        command.add(mode);
+        command.add(script.toString());
+        ProcessBuilder builder = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT);
+        builder.environment().put("MUA_CACHE", cache.toString());
+        Process process = builder.start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        process.waitFor();
+        return output;
+    }
+
+    // run the script as a file and through load, after the cache directory is read
+    // and, when asked to, removed
+    private static void child(String mode, Path script) throws Exception {
+        Class.forName("mua.exec.ScriptCache");
+        if (mode.equals("removed")) WorkloadRunner.delete(Paths.get(System.getenv("MUA_CACHE")));
+        StringWriter out = new StringWriter();
+        try (Environment env = new Environment(new ByteArrayInputStream(new byte[0]), new Output(new PrintWriter(out), false))) {
+            env.execFile(script);
+        }
+        String load = String.format("load \"%s\n", script);
+        try (Environment env = new Environment(new ByteArrayInputStream(load.getBytes(StandardCharsets.UTF_8)), new Output(new PrintWriter(out), false))) {
+            env.execAll();
+        }
+        System.out.print(out);
+        System.out.flush();
+    }
+}
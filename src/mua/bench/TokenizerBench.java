@@ -0,0 +1,32 @@
+package mua.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import mua.token.Tokenizer;
+
+// lexing throughput on multi-megabyte input, per character of input. the input is
+// a program of the kinds of tokens there are, repeated, or a file given as argument
+public class TokenizerBench {
+    private static final int SIZE = 4 << 20;
+    private static final String PROGRAM =
+            "make \"fib [[n] [if lt :n 2 [return :n] [return add fib sub :n 1 fib sub :n 2]]]\n"
+            + "make \"pf [[n] [if (:n < 2) [return :n] [return (pf (:n - 1) + pf (:n - 2))]]]\n"
+            + "make \"xs [1 2.5 3e4 [a [b c]] d]\n"
+            + "print (3.14159 * :r * :r - 1,000 / 2 % 7)\n"
+            + "print word \"hello \"world\n"
+            + "print sentence butfirst :xs join butlast :xs 123456789\n";
+
+    public static void main(String[] args) throws Exception {
+        String input;
+        if (args.length > 0) {
+            input = new String(Files.readAllBytes(Paths.get(args[0])));
+        } else {
+            StringBuilder buf = new StringBuilder(SIZE + PROGRAM.length());
+            while (buf.length() < SIZE) buf.append(PROGRAM);
+            input = buf.toString();
+        }
+        System.out.printf("%d chars%n", input.length());
+        Bench.measure("tokenize, per char", input.length(), ops -> Tokenizer.tokenize(input).size());
+    }
+}
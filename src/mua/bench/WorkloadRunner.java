@@ -0,0 +1,231 @@
+package mua.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import mua.exec.Environment;
+import mua.exec.LiteralVal;
+import mua.exec.Output;
+import mua.exec.Scope;
+
+// end to end runs of the programs in workloads/, each directory an in file and the
+// stdout expected of it, in the format Test.java reads. every program runs in a
+// fresh Environment in this process, its output is checked, and wall time, bytes
+// allocated and peak heap are compared with those kept in the baseline file.
+// programs that write files get a directory for them in :scratch
+//
+// usage: WorkloadRunner [dir] [--update] [--threshold fraction] [--runs n] [--warmup n]
+// exits with 1 if any output is wrong or anything got slower or bigger than the
+// threshold allows, --update writes the measurements as the new baseline instead
+public class WorkloadRunner {
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static class Measurement {
+        final String name;
+        // medians over the measured runs
+        final long nanos;
+        final long allocated;
+        final long peak;
+
+        Measurement(String name, long nanos, long allocated, long peak) {
+            this.name = name;
+            this.nanos = nanos;
+            this.allocated = allocated;
+            this.peak = peak;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s,%d,%d,%d", this.name, this.nanos, this.allocated, this.peak);
+        }
+
+        static Measurement parse(String line) {
+            String[] a = line.split(",");
+            return new Measurement(a[0], Long.parseLong(a[1]), Long.parseLong(a[2]), Long.parseLong(a[3]));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get("workloads");
+        boolean update = false;
+        double threshold = 0.25;
+        int runs = 5;
+        int warmup = 2;
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--update": update = true; break;
+                case "--threshold": threshold = Double.parseDouble(args[++i]); break;
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                default: dir = Paths.get(args[i]); break;
+            }
+        }
+
+        List<Path> workloads = workloads(dir);
+        Path baselineFile = dir.resolve("baseline");
+        Map<String, Measurement> baseline = new LinkedHashMap<>();
+        if (Files.exists(baselineFile)) {
+            for (String line : Files.readAllLines(baselineFile)) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                Measurement measurement = Measurement.parse(line);
+                baseline.put(measurement.name, measurement);
+            }
+        }
+
+        boolean failed = false;
+        List<Measurement> measurements = new ArrayList<>();
+        System.out.printf("%-12s %12s %8s %12s %8s %12s %8s%n", "workload", "time ms", "", "alloc MB", "", "peak MB", "");
+        for (Path workload : workloads) {
+            String name = workload.getFileName().toString();
+            Measurement measurement;
+            try {
+                measurement = measure(workload, runs, warmup);
+            } catch (Exception e) {
+                System.out.printf("%-12s FAIL: %s%n", name, e.getMessage());
+                failed = true;
+                continue;
+            }
+            measurements.add(measurement);
+            Measurement base = baseline.get(name);
+            List<String> regressions = new ArrayList<>();
+            System.out.printf("%-12s %12.1f %8s %12.1f %8s %12.1f %8s%n", name,
+                    measurement.nanos / 1e6, change(measurement.nanos, base == null ? 0 : base.nanos, threshold, "time", regressions),
+                    measurement.allocated / 1e6, change(measurement.allocated, base == null ? 0 : base.allocated, threshold, "alloc", regressions),
+                    measurement.peak / 1e6, change(measurement.peak, base == null ? 0 : base.peak, threshold, "peak", regressions));
+            if (!update && !regressions.isEmpty()) {
+                System.out.printf("%-12s REGRESSION: %s%n", name, String.join(", ", regressions));
+                failed = true;
+            }
+        }
+
+        if (update) {
+            List<String> lines = new ArrayList<>();
+            lines.add("# workload,wall time ns,allocated bytes,peak heap bytes");
+            for (Measurement measurement : measurements) lines.add(measurement.toString());
+            Files.write(baselineFile, lines);
+            System.out.printf("baseline written to %s%n", baselineFile);
+        }
+        if (failed) System.exit(1);
+    }
+
+    // directories of dir with an in file, by name
+    static List<Path> workloads(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.filter(path -> Files.exists(path.resolve("in"))).sorted().collect(Collectors.toList());
+        }
+    }
+
+    // relative change to the baseline, noting it if it is beyond the threshold
+    private static String change(long value, long base, double threshold, String what, List<String> regressions) {
+        if (base <= 0) return "new";
+        double change = (double) value / base - 1;
+        if (change > threshold) regressions.add(String.format("%s %+.0f%%", what, change * 100));
+        return String.format("%+.0f%%", change * 100);
+    }
+
+    private static Measurement measure(Path workload, int runs, int warmup) throws Exception {
+        byte[] in = Files.readAllBytes(workload.resolve("in"));
+        List<String> expected = Files.readAllLines(workload.resolve("stdout"));
+        Path scratch = Files.createTempDirectory("mua-workload");
+        try {
+            long[] nanos = new long[runs];
+            long[] allocated = new long[runs];
+            long[] peak = new long[runs];
+            for (int i = 0; i < warmup; ++i) check(expected, run(in, scratch, null));
+            for (int i = 0; i < runs; ++i) {
+                long[] result = new long[3];
+                String output = run(in, scratch, result);
+                check(expected, output);
+                nanos[i] = result[0];
+                allocated[i] = result[1];
+                peak[i] = result[2];
+            }
+            return new Measurement(workload.getFileName().toString(), median(nanos), median(allocated), median(peak));
+        } finally {
+            delete(scratch);
+        }
+    }
+
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) Files.delete(file);
+        }
+    }
+
+    // run once in a fresh environment, giving what it printed, and time, allocation
+    // and peak heap in result
+    private static String run(byte[] in, Path scratch, long[] result) throws Exception {
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP).collect(Collectors.toList());
+        System.gc();
+        for (MemoryPoolMXBean pool : pools) pool.resetPeakUsage();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long time = System.nanoTime();
+        String output = run(in, scratch);
+        time = System.nanoTime() - time;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools) peak += pool.getPeakUsage().getUsed();
+        if (result != null) {
+            result[0] = time;
+            result[1] = allocated;
+            result[2] = peak;
+        }
+        return output;
+    }
+
+    // run once in a fresh environment, giving what it printed
+    static String run(byte[] in, Path scratch) throws Exception {
+        StringWriter out = new StringWriter();
+        try (Environment env = new Environment(new ByteArrayInputStream(in), new Output(new PrintWriter(out), false))) {
+            env.globalScope.put("scratch", new Scope.Entry(true, new LiteralVal(scratch.toString())));
+            env.execAll();
+        }
+        return out.toString();
+    }
+
+    // the same comparison as Test.java: words equal but for surrounding whitespace,
+    // numbers equal as doubles
+    static void check(List<String> expected, String output) {
+        String[] lines = output.split("\n", -1);
+        for (int i = 0; i < expected.size(); ++i) {
+            String[] a = expected.get(i).split(",", 4);
+            String line = i < lines.length ? lines[i] : "";
+            boolean pass;
+            if (a[0].equals("number")) {
+                try {
+                    pass = new BigDecimal(Double.parseDouble(line)).equals(new BigDecimal(Double.parseDouble(a[1])));
+                } catch (NumberFormatException e) {
+                    pass = false;
+                }
+            } else {
+                pass = line.trim().equals(a[1].trim());
+            }
+            if (!pass) throw new IllegalStateException(String.format("%s: expected %s, got %s", a[3], a[1], line));
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
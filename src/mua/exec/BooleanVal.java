@@ -1,22 +1,41 @@
 package mua.exec;
 
 public class BooleanVal extends Value {
+    // booleans are immutable, so these two are all that is needed
+    public static final BooleanVal TRUE = new BooleanVal(true);
+    public static final BooleanVal FALSE = new BooleanVal(false);
+
     public final boolean content;
 
     public BooleanVal(boolean content) {
+        super(Kind.BOOLEAN);
         this.content = content;
     }
 
+    public static BooleanVal of(boolean content) {
+        return content ? TRUE : FALSE;
+    }
+
     @Override
     public BooleanVal asBooleanVal() throws MuaException {
         return this;
     }
+
+    @Override
+    public BooleanVal tryBooleanVal() {
+        return this;
+    }
     
     @Override
     public LiteralVal asLiteralVal() throws MuaException {
         return new LiteralVal(this.content ? "true" : "false");
     }
 
+    @Override
+    public boolean isLiteralVal() {
+        return true;
+    }
+
     @Override
     public String toString() {
         return Boolean.toString(this.content);
@@ -0,0 +1,49 @@
+package mua.exec;
+
+import java.util.List;
+
+import mua.ast.Parser;
+import mua.jit.Compiled;
+import mua.vm.Program;
+import mua.token.Token;
+import mua.token.Tokenizer;
+import mua.token.TokenizerException;
+
+// compiled form of a piece of code, tokenized once and shared by all of its executions
+public class Code {
+    public final List<Token> tokens;
+    // syntax tree, built as execution reaches each part of it
+    public final Parser parser;
+    private Program program = null;
+
+    // bookkeeping of the jit, executions counted until the code is compiled
+    public int executions = 0;
+    public Compiled compiled = null;
+
+    public Code(List<Token> tokens) {
+        this.tokens = tokens;
+        this.parser = new Parser(tokens);
+    }
+
+    // compile for the bytecode backend on first call
+    public Program program() {
+        if (this.program == null) this.program = Program.compile(this.tokens);
+        return this.program;
+    }
+
+    // join words together with whitespaces and tokenize
+    public static Code compile(ListVal list) throws MuaException {
+        StringBuffer buf = new StringBuffer();
+        for (Value value : list.elements) {
+            // throws error if any value cannot be converted to a literal
+            // i.e., lists and functions
+            String str = value.asLiteralVal().content;
+            buf.append(str).append(' ');
+        }
+        try {
+            return new Code(Tokenizer.tokenize(buf.toString()));
+        } catch (TokenizerException e) {
+            throw new MuaException(String.format("Tokenize error: %s", e.getMessage()));
+        }
+    }
+}
@@ -7,31 +7,50 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Scanner;
 import java.util.Vector;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import mua.Debug;
+import mua.Metrics;
+import mua.Trace;
+import mua.ast.Parser;
 import mua.token.Token;
 import mua.token.Tokenizer;
 import mua.token.TokenizerException;
 
+// an interpreter with variables, input and output of its own. environments share
+// nothing that changes, so that many can run at once, each on a thread of its own,
+// but one is not to be run by several threads at the same time
 public class Environment implements AutoCloseable {
+    // save the code making the variables instead of a snapshot of them, load takes
+    // either
+    private static final boolean SAVE_TEXT = "text".equals(System.getenv("MUA_SAVE"));
+
     public Scope globalScope;
-    public Scanner scanner;
+    public Input input;
+    public Output output;
 
     private Random random;
 
+    // builtins, made once and shared by the global scopes of all environments. the
+    // ones using the input, output or random numbers of an environment find it
+    // through the global scope they are run with
+    private static final Map<String, Scope.Cell> BUILTINS = builtins();
+
     // convenient method for defining global function
-    private void define(String name, boolean modifiable, int paramsCount, FunctionVal.InternalFunction fn) {
-        this.globalScope.variables.put(name, new Scope.Entry(modifiable, FunctionVal.makeInternalFunction(paramsCount, fn)));
+    private static void define(Map<String, Scope.Cell> builtins, String name, boolean modifiable, int paramsCount, FunctionVal.InternalFunction fn) {
+        FunctionVal function = FunctionVal.makeInternalFunction(paramsCount, fn);
+        function.name = name;
+        builtins.put(name, new Scope.Cell(new Scope.Entry(modifiable, function)));
+    }
+
+    private static void define(Map<String, Scope.Cell> builtins, String name, Operator op) {
+        op.name = name;
+        builtins.put(name, new Scope.Cell(new Scope.Entry(false, op)));
     }
 
     public Environment() {
@@ -39,117 +58,113 @@ public class Environment implements AutoCloseable {
     }
 
     public Environment(InputStream in) {
-        this.globalScope = new Scope(false);
-        this.scanner = new Scanner(in);
+        this(in, Output.stdout());
+    }
+
+    public Environment(InputStream in, Output output) {
+        this.globalScope = new Scope(this, BUILTINS);
+        this.input = new Input(in);
+        this.output = output;
         this.random = new Random();
+        this.globalScope.put("pi", new Scope.Entry(true, new NumberVal(Math.PI)));
+    }
+
+    private static Map<String, Scope.Cell> builtins() {
+        Map<String, Scope.Cell> builtins = new HashMap<>();
 
         // boolean values are functions
-        define("true", false, 0, (globalScope, outerScope, params) -> {
-            return new BooleanVal(true);
+        define(builtins, "true", false, 0, (globalScope, outerScope, params) -> {
+            return BooleanVal.TRUE;
         });
-        define("false", false, 0, (globalScope, outerScope, params) -> {
-            return new BooleanVal(false);
+        define(builtins, "false", false, 0, (globalScope, outerScope, params) -> {
+            return BooleanVal.FALSE;
         });
 
         // basic operations
-        define("make", false, 2, (globalScope, outerScope, params) -> {
+        define(builtins, "make", false, 2, (globalScope, outerScope, params) -> {
             String name = params.get(0).asLiteralVal().content;
             Value val = params.get(1);
-            Scope.Entry entry = outerScope.variables.get(name);
+            Scope.Entry entry = outerScope.get(name);
             if (entry != null && !entry.modifiable) {
                 throw new MuaException(String.format("Cannot overrite variable \"%s\"", name));
             }
-            outerScope.variables.put(name, new Scope.Entry(true, val));
+            outerScope.put(name, new Scope.Entry(true, val));
             return val;
         });
-        define("thing", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "thing", false, 1, (globalScope, outerScope, params) -> {
             String name = params.get(0).asLiteralVal().content;
             return Scope.getValue(globalScope, outerScope, name);
         });
-        define("export", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "export", false, 1, (globalScope, outerScope, params) -> {
             // not in function
             if (!outerScope.inFunction) throw new MuaException("Export can be called in function only"); 
             String name = params.get(0).asLiteralVal().content;
-            if (!outerScope.variables.containsKey(name)) {
+            Scope.Entry entry = outerScope.get(name);
+            if (entry == null) {
                 throw new MuaException(String.format("Variable %s not in local scope", name));
             }
-            Value value = outerScope.variables.get(name).value;
-            if (globalScope.variables.containsKey(name) && !globalScope.variables.get(name).modifiable) {
+            Value value = entry.value;
+            Scope.Entry global = globalScope.get(name);
+            if (global != null && !global.modifiable) {
                 throw new MuaException(String.format("Variable %s in global scope is not modifiable", name));
             }
-            globalScope.variables.put(name, new Scope.Entry(true, value));
+            globalScope.put(name, new Scope.Entry(true, value));
             return value;
         });
-        define("print", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "print", false, 1, (globalScope, outerScope, params) -> {
             Value value = params.get(0);
-            if (value instanceof ListVal) System.out.println(value.asListVal().toString(true));
-            else System.out.println(value.toString());
+            Output output = globalScope.environment.output;
+            if (value instanceof ListVal) value.asListVal().write(output, true);
+            else value.write(output);
+            output.newline();
             return value;
         });
-        define("read", false, 0, (globalScope, outerScope, params) -> {
-            if (!this.scanner.hasNext()) throw new MuaException("Unable to read word.");
-            return new LiteralVal(this.scanner.next());
+        define(builtins, "read", false, 0, (globalScope, outerScope, params) -> {
+            Environment env = globalScope.environment;
+            env.awaitInput();
+            String word = env.input.readWord();
+            if (word == null) throw new MuaException("Unable to read word.");
+            return new LiteralVal(word);
         });
 
-        define("add", false, 2, (globalScope, outerScope, params) -> {
-            double a = params.get(0).asNumberVal().content;
-            double b = params.get(1).asNumberVal().content;
-            return new NumberVal(a + b);
-        });
-        define("sub", false, 2, (globalScope, outerScope, params) -> {
-            double a = params.get(0).asNumberVal().content;
-            double b = params.get(1).asNumberVal().content;
-            return new NumberVal(a - b);
-        });
-        define("mul", false, 2, (globalScope, outerScope, params) -> {
-            double a = params.get(0).asNumberVal().content;
-            double b = params.get(1).asNumberVal().content;
-            return new NumberVal(a * b);
-        });
-        define("div", false, 2, (globalScope, outerScope, params) -> {
-            double a = params.get(0).asNumberVal().content;
-            double b = params.get(1).asNumberVal().content;
-            return new NumberVal(a / b);
-        });
-        define("mod", false, 2, (globalScope, outerScope, params) -> {
-            double a = params.get(0).asNumberVal().content;
-            double b = params.get(1).asNumberVal().content;
-            return new NumberVal(a % b); // works for floating points as well
-        });
+        define(builtins, "add", Operator.arithmetic((a, b) -> a + b));
+        define(builtins, "sub", Operator.arithmetic((a, b) -> a - b));
+        define(builtins, "mul", Operator.arithmetic((a, b) -> a * b));
+        define(builtins, "div", Operator.arithmetic((a, b) -> a / b));
+        // works for floating points as well
+        define(builtins, "mod", Operator.arithmetic((a, b) -> a % b));
 
-        define("erase", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "erase", false, 1, (globalScope, outerScope, params) -> {
             String name = params.get(0).asLiteralVal().content;
-            if (outerScope.variables.containsKey(name)) {
-                Scope.Entry entry = outerScope.variables.get(name);
-                if (!entry.modifiable) throw new MuaException(String.format("Cannot erase variable %s", name));
-                outerScope.variables.remove(name);
-                return entry.value;
-            } else if (globalScope.variables.containsKey(name)) {
-                Scope.Entry entry = globalScope.variables.get(name);
-                if (!entry.modifiable) throw new MuaException(String.format("Cannot erase variable %s", name));
-                globalScope.variables.remove(name);
-                return entry.value;
+            Scope.Entry local = outerScope.get(name);
+            Scope.Entry global = globalScope.get(name);
+            if (local != null) {
+                if (!local.modifiable) throw new MuaException(String.format("Cannot erase variable %s", name));
+                outerScope.remove(name);
+                return local.value;
+            } else if (global != null) {
+                if (!global.modifiable) throw new MuaException(String.format("Cannot erase variable %s", name));
+                globalScope.remove(name);
+                return global.value;
             } else throw new MuaException(String.format("Variable %s not in scope", name));
         });
-        define("isname", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "isname", false, 1, (globalScope, outerScope, params) -> {
             String name = params.get(0).asLiteralVal().content;
-            boolean isName = 
-                (outerScope.variables.containsKey(name) && outerScope.variables.get(name).modifiable) ||
-                (globalScope.variables.containsKey(name) && globalScope.variables.get(name).modifiable);
-            return new BooleanVal(isName);
-        });
-        define("readlist", false, 0, (globalScope, outerScope, params) -> {
-            if (!this.scanner.hasNextLine())
+            Scope.Entry local = outerScope.get(name);
+            Scope.Entry global = globalScope.get(name);
+            boolean isName = (local != null && local.modifiable) || (global != null && global.modifiable);
+            return BooleanVal.of(isName);
+        });
+        define(builtins, "readlist", false, 0, (globalScope, outerScope, params) -> {
+            Environment env = globalScope.environment;
+            env.awaitInput();
+            ListVal list = env.input.readList();
+            if (list == null)
                 throw new MuaException("Unable to read line");
-            String line = this.scanner.nextLine();
-            List<Value> values = Stream
-                .of(line.split("\\s+"))
-                .map((String word) -> new LiteralVal(word))
-                .collect(Collectors.toList());
-            return new ListVal(values);
+            return list;
         });
         // MUA P3: disabled temporarily
-        // define("repeat", false, 2, (globalScope, outerScope, params) -> {
+        // define(builtins, "repeat", false, 2, (globalScope, outerScope, params) -> {
         //     double number = params.get(0).asNumberVal().content;
         //     ListVal list = params.get(1).asListVal();
         //     Value retVal = null;
@@ -160,126 +175,86 @@ public class Environment implements AutoCloseable {
         // });
 
         // if both numbers, compare them, otherwise compare words in lexicographical order
-        define("eq", false, 2, (globalScope, outerScope, params) -> {
-            if (params.get(0).isNumberVal() && params.get(1).isNumberVal()) {
-                double a = params.get(0).asNumberVal().content;
-                double b = params.get(1).asNumberVal().content;
-                return new BooleanVal(a == b);
-            } else {
-                String a = params.get(0).asLiteralVal().content;
-                String b = params.get(1).asLiteralVal().content;
-                return new BooleanVal(a.compareTo(b) == 0);
-            }
-        });
-        define("lt", false, 2, (globalScope, outerScope, params) -> {
-            if (params.get(0).isNumberVal() && params.get(1).isNumberVal()) {
-                double a = params.get(0).asNumberVal().content;
-                double b = params.get(1).asNumberVal().content;
-                return new BooleanVal(a < b);
-            } else {
-                String a = params.get(0).asLiteralVal().content;
-                String b = params.get(1).asLiteralVal().content;
-                return new BooleanVal(a.compareTo(b) < 0);
-            }
-        });
-        define("gt", false, 2, (globalScope, outerScope, params) -> {
-            if (params.get(0).isNumberVal() && params.get(1).isNumberVal()) {
-                double a = params.get(0).asNumberVal().content;
-                double b = params.get(1).asNumberVal().content;
-                return new BooleanVal(a > b);
-            } else {
-                String a = params.get(0).asLiteralVal().content;
-                String b = params.get(1).asLiteralVal().content;
-                return new BooleanVal(a.compareTo(b) > 0);
-            }
-        });
+        define(builtins, "eq", Operator.comparison((a, b) -> a == b, c -> c == 0));
+        define(builtins, "lt", Operator.comparison((a, b) -> a < b, c -> c < 0));
+        define(builtins, "gt", Operator.comparison((a, b) -> a > b, c -> c > 0));
         // no short circuit
-        define("and", false, 2, (globalScope, outerScope, params) -> {
+        define(builtins, "and", false, 2, (globalScope, outerScope, params) -> {
             boolean a = params.get(0).asBooleanVal().content;
             boolean b = params.get(1).asBooleanVal().content;
-            return new BooleanVal(a && b);
+            return BooleanVal.of(a && b);
         });
-        define("or", false, 2, (globalScope, outerScope, params) -> {
+        define(builtins, "or", false, 2, (globalScope, outerScope, params) -> {
             boolean a = params.get(0).asBooleanVal().content;
             boolean b = params.get(1).asBooleanVal().content;
-            return new BooleanVal(a || b);
+            return BooleanVal.of(a || b);
         });
-        define("not", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "not", false, 1, (globalScope, outerScope, params) -> {
             boolean val = params.get(0).asBooleanVal().content;
-            return new BooleanVal(!val);
+            return BooleanVal.of(!val);
         });
 
         // given mua's lazy evaluation nature, if can be implemented as an
         // internal function
-        define("if", false, 3, (globalScope, outerScope, params) -> {
+        define(builtins, "if", false, 3, (globalScope, outerScope, params) -> {
             boolean cond = params.get(0).asBooleanVal().content;
             ListVal list1 = params.get(1).asListVal();
             ListVal list2 = params.get(2).asListVal();
             if (cond) {
-                return Runner.execList(globalScope, outerScope, list1);
+                return Runner.tailList(globalScope, outerScope, list1);
             } else {
-                return Runner.execList(globalScope, outerScope, list2);
+                return Runner.tailList(globalScope, outerScope, list2);
             } 
         });
-        define("isnumber", false, 1, (globalScope, outerScope, params) -> {
-            return new BooleanVal(params.get(0).isNumberVal());
+        define(builtins, "isnumber", false, 1, (globalScope, outerScope, params) -> {
+            return BooleanVal.of(params.get(0).isNumberVal());
         });
-        define("isword", false, 1, (globalScope, outerScope, params) -> {
-            return new BooleanVal(params.get(0).isLiteralVal());
+        define(builtins, "isword", false, 1, (globalScope, outerScope, params) -> {
+            return BooleanVal.of(params.get(0).isLiteralVal());
         });
-        define("islist", false, 1, (globalScope, outerScope, params) -> {
-            return new BooleanVal(params.get(0).isListVal());
+        define(builtins, "islist", false, 1, (globalScope, outerScope, params) -> {
+            return BooleanVal.of(params.get(0).isListVal());
         });
-        define("isbool", false, 1, (globalScope, outerScope, params) -> {
-            return new BooleanVal(params.get(0).isBooleanVal());
+        define(builtins, "isbool", false, 1, (globalScope, outerScope, params) -> {
+            return BooleanVal.of(params.get(0).isBooleanVal());
         });
         // list and words don't convert, so it's fine
-        define("isempty", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "isempty", false, 1, (globalScope, outerScope, params) -> {
             Value param = params.get(0);
             if (param instanceof ListVal) {
-                return new BooleanVal(param.asListVal().elements.isEmpty());
+                return BooleanVal.of(param.asListVal().elements.isEmpty());
             } else if(param.isLiteralVal()) {
-                return new BooleanVal(param.asLiteralVal().content.isEmpty());
+                return BooleanVal.of(param.asLiteralVal().content.isEmpty());
             } else throw new MuaException("Value is not word or list");
         });
 
         // type convertion is done automatically by asLiteralVal()
-        define("word", false, 2, (globalScope, outerScope, params) -> {
+        define(builtins, "word", false, 2, (globalScope, outerScope, params) -> {
             String pre = params.get(0).asLiteralVal().content;
             String post = params.get(1).asLiteralVal().content;
             return new LiteralVal(pre + post);
         });
-        define("sentence", false, 2, (globalScope, outerScope, params) -> {
-            return new ListVal(Stream
-                .concat(
-                    params.get(0).asListVal().elements.stream(),
-                    params.get(1).asListVal().elements.stream())
-                .collect(Collectors.toList()));
-        });
-        define("list", false, 2, (globalScope, outerScope, params) -> {
-            List<Value> list = new Vector<>();
-            list.add(params.get(0));
-            list.add(params.get(1));
-            return new ListVal(list);
-        });
-        define("join", false, 2, (globalScope, outerScope, params) -> {
-            return new ListVal(Stream
-                .concat(
-                    params.get(0).asListVal().elements.stream(),
-                    Stream.of(params.get(1)))
-                .collect(Collectors.toList()));
-        });
-        define("first", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "sentence", false, 2, (globalScope, outerScope, params) -> {
+            Slice pre = params.get(0).asListVal().elements;
+            return new ListVal(pre.concat(params.get(1).asListVal().elements));
+        });
+        define(builtins, "list", false, 2, (globalScope, outerScope, params) -> {
+            return new ListVal(Slice.EMPTY.append(params.get(0)).append(params.get(1)));
+        });
+        define(builtins, "join", false, 2, (globalScope, outerScope, params) -> {
+            return new ListVal(params.get(0).asListVal().elements.append(params.get(1)));
+        });
+        define(builtins, "first", false, 1, (globalScope, outerScope, params) -> {
             Value val = params.get(0);
             if (val instanceof ListVal) {
-                return val.asListVal().elements.firstElement();
+                return val.asListVal().elements.get(0);
             } else {
                 return new LiteralVal(Character.toString(
                     val.asLiteralVal().content.charAt(0)
                 ));
             }
         });
-        define("last", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "last", false, 1, (globalScope, outerScope, params) -> {
             Value val = params.get(0);
             if (val.isLiteralVal()) {
                 String str = val.asLiteralVal().content;
@@ -287,85 +262,100 @@ public class Environment implements AutoCloseable {
                     str.charAt(str.length() - 1)
                 ));
             } else {
-                return val.asListVal().elements.lastElement();
+                List<Value> values = val.asListVal().elements;
+                return values.get(values.size() - 1);
             }
         });
-        define("butfirst", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "butfirst", false, 1, (globalScope, outerScope, params) -> {
             Value val = params.get(0);
             if (val instanceof ListVal) {
-                List<Value> values = val.asListVal().elements;
-                return new ListVal(values.size() > 0 ? values.subList(1, values.size()) : new ArrayList<>());
+                return new ListVal(val.asListVal().elements.butFirst());
             } else {
                 String str = val.asLiteralVal().content;
                 return new LiteralVal(str.substring(1));
             }
         });
-        define("butlast", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "butlast", false, 1, (globalScope, outerScope, params) -> {
             Value val = params.get(0);
             if (val instanceof ListVal) {
-                List<Value> values = val.asListVal().elements;
-                return new ListVal(values.size() > 0 ? values.subList(0, values.size() - 1) : new ArrayList<>());
+                return new ListVal(val.asListVal().elements.butLast());
             } else {
                 String str = val.asLiteralVal().content;
                 return new LiteralVal(str.substring(0, str.length() - 1));
             }
         });
 
-        define("random", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "random", false, 1, (globalScope, outerScope, params) -> {
             // this allows non-positive bounds, which does not exactly match
             // the [0, number) requirement
             double bound = params.get(0).asNumberVal().content;
-            return new NumberVal(this.random.nextDouble() * bound);
+            return new NumberVal(globalScope.environment.random.nextDouble() * bound);
         });
-        define("int", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "int", false, 1, (globalScope, outerScope, params) -> {
             double value = params.get(0).asNumberVal().content;
             return new NumberVal(Math.floor(value));
         });
-        define("sqrt", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "sqrt", false, 1, (globalScope, outerScope, params) -> {
             double value = params.get(0).asNumberVal().content;
             // if value is negative, will return NaN
             return new NumberVal(Math.sqrt(value));
         });
 
-        define("save", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "save", false, 1, (globalScope, outerScope, params) -> {
             String filename = params.get(0).asLiteralVal().content;
+            final long start = Metrics.ENABLED ? System.nanoTime() : 0;
+            Map<String, Scope.Entry> variables = outerScope.removeInternals().variables();
+            if (!SAVE_TEXT) {
+                try {
+                    Snapshot.save(Paths.get(filename), variables);
+                } catch (IOException e) {
+                    throw new MuaException(String.format("Cannot save file: %s", e.getMessage()));
+                }
+                if (Metrics.ENABLED) Metrics.saved(filename, start);
+                return new LiteralVal(filename);
+            }
             try(FileOutputStream fos = new FileOutputStream(filename)) {
                 PrintWriter writer = new PrintWriter(fos);
-                for (Map.Entry<String, Scope.Entry> entry : outerScope.removeInternals().variables.entrySet()) {
+                for (Map.Entry<String, Scope.Entry> entry : variables.entrySet()) {
                     writer.println("make \"" + entry.getKey() + " " + entry.getValue().value.toMakableString());
                 }
                 writer.flush();
             } catch (IOException e) {
                 throw new MuaException(String.format("Cannot save file: %s", e.getMessage()));
             }
+            if (Metrics.ENABLED) Metrics.saved(filename, start);
             return new LiteralVal(filename);
         });
-        define("load", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "load", false, 1, (globalScope, outerScope, params) -> {
             String filename = params.get(0).asLiteralVal().content;
+            final long start = Metrics.ENABLED ? System.nanoTime() : 0;
             try {
-                String content = Files.lines(Paths.get(filename)).collect(Collectors.joining("\n")) + "\n";
-                List<Token> tokens = Tokenizer.tokenize(content);
-                Runner.execTokens(globalScope, globalScope, tokens);
-            } catch (IOException | TokenizerException e) {
+                if (Snapshot.load(Paths.get(filename), globalScope)) {
+                    if (Metrics.ENABLED) Metrics.loaded(filename, start);
+                    return BooleanVal.TRUE;
+                }
+                execFile(globalScope, Paths.get(filename));
+            } catch (IOException e) {
                 throw new MuaException(String.format("Cannot load file: %s", e.getMessage()));
             }
-            return new BooleanVal(true);
+            if (Metrics.ENABLED) Metrics.loaded(filename, start);
+            return BooleanVal.TRUE;
         });
-        define("erall", false, 0, (globalScope, outerScope, params) -> {
+        define(builtins, "erall", false, 0, (globalScope, outerScope, params) -> {
             List<String> erases = new Vector<>();
-            for (Map.Entry<String, Scope.Entry> entry : outerScope.variables.entrySet()) {
+            for (Map.Entry<String, Scope.Entry> entry : outerScope.variables().entrySet()) {
                 if (entry.getValue().modifiable) {
                     erases.add(entry.getKey());
                 }
             }
             for (String key : erases) {
-                outerScope.variables.remove(key);
+                outerScope.remove(key);
             }
-            return new BooleanVal(true);
+            return BooleanVal.TRUE;
         });
-        define("poall", false, 0, (globalScope, outerScope, params) -> {
+        define(builtins, "poall", false, 0, (globalScope, outerScope, params) -> {
             List<Value> names = new Vector<>();
-            for (Map.Entry<String, Scope.Entry> entry : outerScope.variables.entrySet()) {
+            for (Map.Entry<String, Scope.Entry> entry : outerScope.variables().entrySet()) {
                 // non-modifiable values are considered internal and
                 // not displayed by poall
                 if (entry.getValue().modifiable) {
@@ -375,58 +365,109 @@ public class Environment implements AutoCloseable {
             return new ListVal(names);
         });
 
-        this.globalScope.variables.put("pi", new Scope.Entry(true, new NumberVal(Math.PI)));
         // run is now internal
-        define("run", false, 1, (globalScope, outerScope, params) -> {
+        define(builtins, "run", false, 1, (globalScope, outerScope, params) -> {
             ListVal list = params.get(0).asListVal();
-            return Runner.execList(globalScope, outerScope, list);
+            return Runner.tailList(globalScope, outerScope, list);
         });
+        return Map.copyOf(builtins);
     }
 
     public Value execLine() throws MuaException, TokenizerException {
-        Debug.log("execLine {\n");
-        Debug.increaseLevel();
-        String line = scanner.nextLine();
-        Debug.log("input: ", line, "\n");
+        String line = this.input.readLine();
+        if (line == null) throw new MuaException("Unable to read line");
+        if (Trace.ENABLED) Trace.event(Trace.LINE, line.length(), 0, line);
         List<Token> tokens = Tokenizer.tokenize(line + "\n");
-        Value value = Runner.execTokens(this.globalScope, this.globalScope, tokens);
-        Debug.decreaseLevel();
-        Debug.log("}\n");
-        return value;
+        return Runner.execTokens(this.globalScope, this.globalScope, tokens);
     }
 
+    // run statements as soon as their input is read, a line at a time. read and
+    // readlist take the input after the statement calling them
     public void execAll() throws MuaException, TokenizerException {
-        StringBuffer sb = new StringBuffer();
-        while (scanner.hasNextLine()) {
-            sb.append(scanner.nextLine()).append('\n');
+        Tokenizer tokenizer = new Tokenizer();
+        Parser parser = new Parser(() -> {
+            while (true) {
+                this.awaitInput();
+                String line = this.input.readLine();
+                if (line == null) break;
+                if (Trace.ENABLED) Trace.event(Trace.LINE, line.length(), 0, line);
+                try {
+                    tokenizer.feed(line + "\n");
+                } catch (TokenizerException e) {
+                    throw new MuaException(String.format("Tokenize error: %s", e.getMessage()));
+                }
+                List<Token> tokens = tokenizer.take();
+                if (!tokens.isEmpty()) return tokens;
+            }
+            return null;
+        });
+        exec(this.globalScope, parser);
+        tokenizer.finish();
+    }
+
+    // run a file of statements, as they are read, see FileSource
+    public void execFile(Path file) throws MuaException, IOException {
+        execFile(this.globalScope, file);
+    }
+
+    // with the tokens of the file from the cache when it has them, see ScriptCache
+    private static void execFile(Scope globalScope, Path file) throws MuaException, IOException {
+        try (ScriptCache.Source source = ScriptCache.open(file)) {
+            exec(globalScope, new Parser(source));
+        }
+    }
+
+    // run statements one at a time, at the top level
+    private static void exec(Scope globalScope, Parser parser) throws MuaException {
+        Runner runner = new Runner(globalScope, globalScope, parser);
+        while (runner.hasNext()) {
+            runner.execNext();
+            // drop what has run once it is most of what is kept
+            if (runner.index * 2 >= parser.size()) {
+                parser = parser.rest(runner.index);
+                runner = new Runner(globalScope, globalScope, parser);
+            }
         }
-        List<Token> tokens = Tokenizer.tokenize(sb.toString());
-        Value value = Runner.execTokens(this.globalScope, this.globalScope, tokens);
     }
 
 
+    // output is flushed before input might have to be waited for, so that whoever
+    // is to give it sees everything printed until then
+    private void awaitInput() throws MuaException {
+        if (this.output.pending() && !this.input.ready()) this.output.flush();
+    }
+
     // REPL
     public static void main(String[] args) {
-        try (Environment env = new Environment()) {
+        try (Environment env = new Environment(System.in, new Output(new PrintWriter(System.out), true))) {
             do {
-                System.out.print("> ");
-                if (!env.scanner.hasNextLine()) break;
+                env.output.append("> ").flush();
+                if (!env.input.hasNextLine()) break;
                 try {
                     Value value = env.execLine();
-                    System.out.println(value);
+                    env.output.append(String.valueOf(value)).newline();
                 } catch (TokenizerException e) {
                     // System.out.println(e.getMessage());
                     e.printStackTrace();
+                    Trace.dump();
                 } catch (MuaException e) {
                     // System.out.println(e.getMessage());
                     e.printStackTrace();
+                    Trace.dump();
                 }
             } while (true);
+        } catch (MuaException e) {
+            e.printStackTrace();
         }
     }
 
     @Override
     public void close() {
-        if (this.scanner != null) this.scanner.close();
+        try {
+            this.output.close();
+            this.input.close();
+        } catch (MuaException e) {
+            e.printStackTrace();
+        }
     }
 }
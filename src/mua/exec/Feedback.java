@@ -0,0 +1,73 @@
+package mua.exec;
+
+// types seen for one operand of an operation. it specializes to what it first meets:
+// a NumberVal is read directly, and a literal, which keeps being the same instance
+// when it is a constant of the code, is parsed only once. anything else makes it
+// generic for good, converting through Value every time
+public class Feedback {
+    private static final int UNSEEN = 0;
+    private static final int NUMBER = 1;
+    private static final int CONSTANT = 2;
+    private static final int GENERIC = 3;
+
+    // for callers without feedback of their own, never changes
+    public static final Feedback NONE = new Feedback(GENERIC);
+
+    private int state;
+    private Value constant = null;
+    private double number = 0;
+
+    public Feedback() {
+        this(UNSEEN);
+    }
+
+    private Feedback(int state) {
+        this.state = state;
+    }
+
+    public double number(Value operand) throws MuaException {
+        switch (this.state) {
+            case NUMBER:
+                if (operand.kind == Value.Kind.NUMBER) return ((NumberVal) operand).content;
+                break;
+            case CONSTANT:
+                if (operand == this.constant) return this.number;
+                break;
+            case GENERIC:
+                return operand.asNumberVal().content;
+        }
+        return this.widen(operand);
+    }
+
+    // whether operand converts to a number, comparisons use words otherwise
+    public boolean isNumber(Value operand) {
+        switch (this.state) {
+            case NUMBER:
+                if (operand.kind == Value.Kind.NUMBER) return true;
+                break;
+            case CONSTANT:
+                if (operand == this.constant) return true;
+                break;
+            case GENERIC:
+                return operand.isNumberVal();
+        }
+        if (operand.isNumberVal()) return true;
+        this.state = GENERIC;
+        return false;
+    }
+
+    private double widen(Value operand) throws MuaException {
+        double number = operand.asNumberVal().content;
+        if (this.state == UNSEEN && operand.kind == Value.Kind.NUMBER) {
+            this.state = NUMBER;
+        } else if (this.state == UNSEEN && operand.kind == Value.Kind.WORD) {
+            this.state = CONSTANT;
+            this.constant = operand;
+            this.number = number;
+        } else {
+            this.state = GENERIC;
+            this.constant = null;
+        }
+        return number;
+    }
+}
@@ -0,0 +1,108 @@
+package mua.exec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import mua.ast.Parser;
+import mua.token.Token;
+import mua.token.Tokenizer;
+import mua.token.TokenizerException;
+
+// tokens of a UTF-8 file, which is mapped and decoded a chunk at a time into one
+// buffer the tokenizer reads, so that statements run as the file is read, and it
+// never is in memory whole. chunks end at line ends, where no token is left
+// unfinished. lines end like they do for Files.lines(), \r\n and \r are given to
+// the tokenizer as \n
+class FileSource implements Parser.Source {
+    private static final int CHUNK = 1 << 16;
+
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private CharBuffer chars = CharBuffer.allocate(CHUNK);
+    private final Tokenizer tokenizer = new Tokenizer();
+    private boolean done = false;
+
+    FileSource(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("File too large");
+            this.bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Override
+    public List<Token> more() throws MuaException {
+        try {
+            while (!this.done) {
+                CoderResult result = this.decoder.decode(this.bytes, this.chars, true);
+                if (result.isError()) throw new MuaException("Cannot load file: malformed UTF-8");
+                final boolean end = !this.bytes.hasRemaining();
+                this.chars.flip();
+                final int cut = end ? this.chars.limit() : lineEnd(this.chars);
+                if (cut < 0) {
+                    // a line longer than the buffer
+                    CharBuffer chars = CharBuffer.allocate(this.chars.capacity() * 2);
+                    chars.put(this.chars);
+                    this.chars = chars;
+                    continue;
+                }
+                this.feed(cut);
+                this.chars.position(cut);
+                this.chars.compact();
+                if (end) {
+                    this.done = true;
+                    // like a last line without a line end
+                    this.tokenizer.feed("\n");
+                    return this.tokenizer.finish();
+                }
+                List<Token> tokens = this.tokenizer.take();
+                if (!tokens.isEmpty()) return tokens;
+            }
+        } catch (TokenizerException e) {
+            this.done = true;
+            throw new MuaException(String.format("Cannot load file: %s", e.getMessage()));
+        }
+        return null;
+    }
+
+    // the first length chars, through a view of the buffer unless line ends need
+    // to be changed
+    private void feed(int length) throws TokenizerException {
+        final CharBuffer chars = this.chars;
+        int cr = -1;
+        for (int i = 0; i < length && cr < 0; ++i) {
+            if (chars.get(i) == '\r') cr = i;
+        }
+        if (cr < 0) {
+            this.tokenizer.feed(chars.subSequence(0, length));
+            return;
+        }
+        StringBuilder buf = new StringBuilder(length);
+        buf.append(chars, 0, cr);
+        for (int i = cr; i < length; ++i) {
+            char ch = chars.get(i);
+            if (ch != '\r') {
+                buf.append(ch);
+            } else if (i + 1 == length || chars.get(i + 1) != '\n') {
+                buf.append('\n');
+            }
+        }
+        this.tokenizer.feed(buf);
+    }
+
+    // index after the last line end in chars, -1 if there is none
+    private static int lineEnd(CharBuffer chars) {
+        for (int i = chars.limit() - 1; i >= 0; --i) {
+            char ch = chars.get(i);
+            if (ch == '\n' || ch == '\r') return i + 1;
+        }
+        return -1;
+    }
+}
@@ -3,9 +3,23 @@ package mua.exec;
 import java.util.List;
 
 public abstract class FunctionVal extends Value {
+    // name it was defined by, or first called by if it was not, for the profiler
+    String name;
+
+    protected FunctionVal() {
+        super(Kind.FUNCTION);
+    }
+
     public abstract int paramsCount();
     public abstract Value run(Scope globalScope, Scope outerScope, List<Value> params) throws MuaException;
 
+    // for callers in tail position, code run as the last step may be returned as a
+    // TailCall instead
+    public Value runTail(Scope globalScope, Scope outerScope, List<Value> params) throws MuaException {
+        return this.run(globalScope, outerScope, params);
+    }
+
+    // may return a TailCall, which is run unless the caller is in tail position
     @FunctionalInterface
     public interface InternalFunction {
         Value run(Scope globalScope, Scope outerScope, List<Value> params) throws MuaException;
@@ -16,6 +30,11 @@ public abstract class FunctionVal extends Value {
         return this;
     }
 
+    @Override
+    public boolean isFunctionVal() {
+        return true;
+    }
+
     public static FunctionVal makeInternalFunction(int paramsCount, InternalFunction fn) {
         return new FunctionVal(){
             /**
@@ -30,7 +49,24 @@ public abstract class FunctionVal extends Value {
 
             @Override
             public Value run(Scope globalScope, Scope outerScope, List<Value> params) throws MuaException {
-                return fn.run(globalScope, outerScope, params);
+                if (!Profiler.ENABLED) return Runner.resolve(fn.run(globalScope, outerScope, params));
+                Profiler.enter(this.name);
+                try {
+                    return Runner.resolve(fn.run(globalScope, outerScope, params));
+                } finally {
+                    Profiler.exit();
+                }
+            }
+
+            @Override
+            public Value runTail(Scope globalScope, Scope outerScope, List<Value> params) throws MuaException {
+                if (!Profiler.ENABLED) return fn.run(globalScope, outerScope, params);
+                Profiler.enter(this.name);
+                try {
+                    return fn.run(globalScope, outerScope, params);
+                } finally {
+                    Profiler.exit();
+                }
             }
         };
     }
@@ -0,0 +1,168 @@
+package mua.exec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// input of statements, read and readlist, decoded into one buffer that lines and
+// words are cut out of. lines end like they do for Scanner, words are separated by
+// whitespace, and readlist splits lines the way String.split("\\s+") does
+public class Input implements AutoCloseable {
+    private static final int SIZE = 8192;
+
+    // the stream is decoded by a reader made on the first read, like the buffer
+    private final InputStream in;
+    private Reader reader;
+    // made on the first read, input that stays unused costs nothing
+    private char[] buf = new char[0];
+    // unread chars are from pos to limit
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+
+    public Input(InputStream in) {
+        this.in = in;
+        this.reader = null;
+    }
+
+    public Input(Reader reader) {
+        this.in = null;
+        this.reader = reader;
+    }
+
+    // whether chars can be read without waiting for them
+    public boolean ready() {
+        if (this.pos < this.limit || this.eof) return true;
+        try {
+            return this.reader().ready();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public boolean hasNextLine() throws MuaException {
+        return this.lineEnd() >= 0;
+    }
+
+    // next line without its terminator, null at end of input
+    public String readLine() throws MuaException {
+        int end = this.lineEnd();
+        if (end < 0) return null;
+        String line = new String(this.buf, this.pos, end - this.pos);
+        this.skipTerminator(end);
+        return line;
+    }
+
+    // next word, skipping whitespace before it, null if there is none left. like
+    // Scanner, the whitespace is only skipped if a word follows it
+    public String readWord() throws MuaException {
+        int start = 0;
+        while (true) {
+            if (this.pos + start == this.limit && !this.fill()) return null;
+            if (!Character.isWhitespace(this.buf[this.pos + start])) break;
+            ++start;
+        }
+        int n = start;
+        while ((this.pos + n < this.limit || this.fill()) && !Character.isWhitespace(this.buf[this.pos + n])) ++n;
+        String word = new String(this.buf, this.pos + start, n - start);
+        this.pos += n;
+        return word;
+    }
+
+    // words of the next line as a list, null at end of input. a line starting with
+    // whitespace has an empty word first, and an empty line is one empty word
+    public ListVal readList() throws MuaException {
+        int end = this.lineEnd();
+        if (end < 0) return null;
+        Value[] words = new Value[8];
+        int count = 0;
+        int i = this.pos;
+        if (i == end) {
+            words[count++] = new LiteralVal("");
+        } else if (isSpace(this.buf[i])) {
+            while (i < end && isSpace(this.buf[i])) ++i;
+            if (i < end) words[count++] = new LiteralVal("");
+        }
+        while (i < end) {
+            int start = i;
+            while (i < end && !isSpace(this.buf[i])) ++i;
+            if (count == words.length) words = Arrays.copyOf(words, count * 2);
+            words[count++] = new LiteralVal(new String(this.buf, start, i - start));
+            while (i < end && isSpace(this.buf[i])) ++i;
+        }
+        this.skipTerminator(end);
+        return new ListVal(Slice.of(words, count));
+    }
+
+    // \s of regular expressions
+    private static boolean isSpace(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == 0x0B || ch == '\f' || ch == '\r';
+    }
+
+    private static boolean isTerminator(char ch) {
+        return ch == '\n' || ch == '\r' || ch == 0x2028 || ch == 0x2029 || ch == 0x85;
+    }
+
+    // index of the terminator of the next line, or limit if it is the last line and
+    // has none, -1 at end of input
+    private int lineEnd() throws MuaException {
+        int n = 0;
+        while (true) {
+            if (this.pos + n == this.limit && !this.fill()) {
+                return n == 0 ? -1 : this.pos + n;
+            }
+            if (isTerminator(this.buf[this.pos + n])) return this.pos + n;
+            ++n;
+        }
+    }
+
+    // continue after the terminator at end, \r\n being one
+    private void skipTerminator(int end) throws MuaException {
+        this.pos = end;
+        if (this.pos == this.limit) return;
+        char ch = this.buf[this.pos++];
+        if (ch == '\r' && (this.pos < this.limit || this.fill()) && this.buf[this.pos] == '\n') ++this.pos;
+    }
+
+    // read more after limit, keeping the unread chars by moving them to the front of
+    // the buffer, or growing it if they fill it. false at end of input
+    private boolean fill() throws MuaException {
+        if (this.eof) return false;
+        if (this.pos > 0) {
+            System.arraycopy(this.buf, this.pos, this.buf, 0, this.limit - this.pos);
+            this.limit -= this.pos;
+            this.pos = 0;
+        } else if (this.limit == this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, SIZE));
+        }
+        try {
+            int n = this.reader().read(this.buf, this.limit, this.buf.length - this.limit);
+            if (n < 0) {
+                this.eof = true;
+                return false;
+            }
+            this.limit += n;
+            return true;
+        } catch (IOException e) {
+            throw new MuaException(String.format("Cannot read input: %s", e.getMessage()));
+        }
+    }
+
+    @Override
+    public void close() throws MuaException {
+        try {
+            if (this.reader != null) this.reader.close();
+            else this.in.close();
+        } catch (IOException e) {
+            throw new MuaException(String.format("Cannot close input: %s", e.getMessage()));
+        }
+    }
+
+    private Reader reader() {
+        if (this.reader == null) this.reader = new InputStreamReader(this.in, Charset.defaultCharset());
+        return this.reader;
+    }
+}
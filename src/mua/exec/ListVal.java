@@ -1,17 +1,26 @@
 package mua.exec;
 
 import java.util.List;
-import java.util.Vector;
 
 public class ListVal extends Value {
-    public final Vector<Value> elements;
+    // lists are never modified after construction, builtins always create new
+    // lists, which is what makes caching the compiled form below safe. lists made
+    // from each other share their elements, see Slice
+    public final Slice elements;
+
+    // compiled form when this list is executed as code, built on first execution
+    private transient Code code = null;
+    // function when this list is called, built on first call
+    private transient MuaFunctionVal function = null;
 
     public ListVal() {
-        this.elements = new Vector<>();
+        super(Kind.LIST);
+        this.elements = Slice.EMPTY;
     }
 
     public ListVal(List<Value> elements) {
-        this.elements = new Vector<>(elements);
+        super(Kind.LIST);
+        this.elements = Slice.of(elements);
     }
 
     @Override
@@ -21,8 +30,9 @@ public class ListVal extends Value {
 
     @Override
     public FunctionVal asFunctionVal() throws MuaException {
-        if (this.elements.size() != 2) throw new MuaException("Cannot convert to function");
-        return new MuaFunctionVal(this);
+        if (this.elements.size() != 2) throw new MuaException("Cannot convert to function", false);
+        if (this.function == null) this.function = new MuaFunctionVal(this);
+        return this.function;
     }
 
     @Override
@@ -30,6 +40,28 @@ public class ListVal extends Value {
         return new LiteralVal(this.toString());
     }
 
+    @Override
+    public boolean isListVal() {
+        return true;
+    }
+
+    @Override
+    public boolean isLiteralVal() {
+        return true;
+    }
+
+    // see MuaFunctionVal for what the two elements are converted to
+    @Override
+    public boolean isFunctionVal() {
+        return this.elements.size() == 2 && this.elements.get(0).isListVal() && this.elements.get(1).isListVal();
+    }
+
+    // tokenize on first call, later calls return the cached result
+    public Code compile() throws MuaException {
+        if (this.code == null) this.code = Code.compile(this);
+        return this.code;
+    }
+
     public String toString(boolean noBrackets) {
         StringBuffer buf = new StringBuffer();
         if (!noBrackets) buf.append('[');
@@ -46,4 +78,20 @@ public class ListVal extends Value {
     public String toString() {
         return this.toString(false);
     }
+
+    // nested lists are written into the output as well, not made into strings
+    public void write(Output out, boolean noBrackets) throws MuaException {
+        if (!noBrackets) out.append('[');
+        for (int i = 0; i < this.elements.size(); ++i) {
+            if (i != 0)
+                out.append(' ');
+            this.elements.get(i).write(out);
+        }
+        if (!noBrackets) out.append(']');
+    }
+
+    @Override
+    public void write(Output out) throws MuaException {
+        this.write(out, false);
+    }
 }
@@ -2,14 +2,49 @@ package mua.exec;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 public class LiteralVal extends Value {
+    // strings Double.parseDouble() accepts, as given in the documentation of
+    // Double.valueOf(), so that checking needs no NumberFormatException
+    private static final String DIGITS = "(\\p{Digit}+)";
+    private static final String HEX_DIGITS = "(\\p{XDigit}+)";
+    private static final String EXP = "[eE][+-]?" + DIGITS;
+    private static final Pattern NUMBER = Pattern.compile("[\\x00-\\x20]*[+-]?(NaN|Infinity|(((" + DIGITS
+            + "(\\.)?(" + DIGITS + "?)(" + EXP + ")?)|(\\.(" + DIGITS + ")(" + EXP + ")?)|(((0[xX]" + HEX_DIGITS
+            + "(\\.)?)|(0[xX]" + HEX_DIGITS + "?(\\.)" + HEX_DIGITS + "))[pP][+-]?" + DIGITS + "))[fFdD]?))[\\x00-\\x20]*");
+
+    // meaning when there is neither a number nor a boolean
+    private static final Value NONE = new Value(Kind.WORD);
+
     public final String content;
 
+    // number or boolean this literal stands for, parsed on first conversion and kept,
+    // so later conversions return the same instance
+    private transient Value meaning = null;
+
     public LiteralVal(String content) {
+        super(Kind.WORD);
         this.content = content;
     }
 
+    private Value meaning() {
+        Value meaning = this.meaning;
+        if (meaning == null) {
+            if ("true".equals(this.content)) {
+                meaning = BooleanVal.TRUE;
+            } else if ("false".equals(this.content)) {
+                meaning = BooleanVal.FALSE;
+            } else if (isDecimal(this.content) || NUMBER.matcher(this.content).matches()) {
+                meaning = new NumberVal(Double.parseDouble(this.content));
+            } else {
+                meaning = NONE;
+            }
+            this.meaning = meaning;
+        }
+        return meaning;
+    }
+
     @Override
     public LiteralVal asLiteralVal() throws MuaException {
         return this;
@@ -17,18 +52,47 @@ public class LiteralVal extends Value {
 
     @Override
     public BooleanVal asBooleanVal() throws MuaException {
-        if ("true".equals(this.content)) return new BooleanVal(true);
-        if ("false".equals(this.content)) return new BooleanVal(false);
-        throw new MuaException(String.format("Literal \"%s\" is not a boolean", this.content));
+        BooleanVal value = this.tryBooleanVal();
+        if (value == null) throw new MuaException(String.format("Literal \"%s\" is not a boolean", this.content), false);
+        return value;
+    }
+
+    @Override
+    public BooleanVal tryBooleanVal() {
+        Value meaning = this.meaning();
+        return meaning.kind == Kind.BOOLEAN ? (BooleanVal) meaning : null;
     }
 
     @Override
     public NumberVal asNumberVal() throws MuaException {
-        try {
-            return new NumberVal(Double.parseDouble(this.content));
-        } catch (NumberFormatException e) {
-            throw new MuaException(String.format("Literal \"%s\" is not a number", this.content));
+        NumberVal value = this.tryNumberVal();
+        if (value == null) throw new MuaException(String.format("Literal \"%s\" is not a number", this.content), false);
+        return value;
+    }
+
+    @Override
+    public NumberVal tryNumberVal() {
+        Value meaning = this.meaning();
+        return meaning.kind == Kind.NUMBER ? (NumberVal) meaning : null;
+    }
+
+    // common case of plain decimals like 42, -1 or 3.14, checked without the pattern
+    private static boolean isDecimal(String str) {
+        int i = 0;
+        final int length = str.length();
+        if (i < length && (str.charAt(i) == '-' || str.charAt(i) == '+')) ++i;
+        boolean digits = false, dot = false;
+        for (; i < length; ++i) {
+            char ch = str.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                digits = true;
+            } else if (ch == '.' && !dot) {
+                dot = true;
+            } else {
+                return false;
+            }
         }
+        return digits;
     }
 
     @Override
@@ -38,11 +102,26 @@ public class LiteralVal extends Value {
         return new ListVal(elements);
     }
 
+    @Override
+    public boolean isLiteralVal() {
+        return true;
+    }
+
+    @Override
+    public boolean isListVal() {
+        return true;
+    }
+
     @Override
     public String toString() {
         return this.content;
     }
 
+    @Override
+    public void write(Output out) throws MuaException {
+        out.append(this.content);
+    }
+
     @Override
     public String toMakableString() throws MuaException {
         return "\"" + this.toString();
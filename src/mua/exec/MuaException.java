@@ -1,9 +1,19 @@
 package mua.exec;
 
+import mua.Metrics;
+
 public class MuaException extends Exception {
     private static final long serialVersionUID = 1L;
     
     public MuaException(String msg) {
         super(msg);
+        if (Metrics.ENABLED) Metrics.exception();
+    }
+
+    // errors of programs the interpreter expects, such as failed conversions, say
+    // nothing with a java stack trace, so filling it in can be skipped
+    public MuaException(String msg, boolean stackTrace) {
+        super(msg, null, false, stackTrace);
+        if (Metrics.ENABLED) Metrics.exception();
     }
 }
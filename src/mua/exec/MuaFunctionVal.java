@@ -2,17 +2,26 @@ package mua.exec;
 
 import java.util.List;
 
+import mua.Metrics;
+
 public class MuaFunctionVal extends FunctionVal {
     private final ListVal paramList;
     private final ListVal code;
+    // parameters are kept in slots of the scope of each call
+    private final Scope.Layout layout;
 
     public MuaFunctionVal(ListVal definition) throws MuaException {
         this.paramList = definition.elements.get(0).asListVal();
         this.code = definition.elements.get(1).asListVal();
+        String[] names = new String[this.paramList.elements.size()];
+        for (int i = 0; i < names.length; ++i) {
+            names[i] = this.paramList.elements.get(i).asLiteralVal().content;
+        }
+        this.layout = new Scope.Layout(names);
     }
 
     // MuaFunctionVal instances are only constructed by ListVal.asFunctionVal() when
-    // calling a function, the result won't be stored anywhere so it don't need convertions
+    // calling a function, which keeps it for later calls, so the layout stays the same
 
     @Override
     public int paramsCount() {
@@ -21,13 +30,26 @@ public class MuaFunctionVal extends FunctionVal {
 
     @Override
     public Value run(Scope globalScope, Scope outerScope, List<Value> params) throws MuaException {
-        Scope localScope = new Scope(true);
-        for (int i = 0; i < this.paramsCount(); ++i) {
-            String key = this.paramList.elements.get(i).asLiteralVal().content;
-            Value value = params.get(i);
-            localScope.variables.put(key, new Scope.Entry(true, value));
+        if (Metrics.ENABLED) Metrics.call();
+        if (!Profiler.ENABLED) return Runner.execList(globalScope, this.bind(params), this.code);
+        Profiler.enter(this.name);
+        try {
+            return Runner.execList(globalScope, this.bind(params), this.code);
+        } finally {
+            Profiler.exit();
         }
-        return Runner.execList(globalScope, localScope, this.code);
+    }
+
+    // the profiler frame is entered by whoever runs the code
+    @Override
+    public Value runTail(Scope globalScope, Scope outerScope, List<Value> params) throws MuaException {
+        if (Metrics.ENABLED) Metrics.call();
+        return new TailCall(globalScope, this.bind(params), this.code.compile(), Profiler.ENABLED ? this.name : null);
+    }
+
+    // scope of one call, with parameters bound
+    private Scope bind(List<Value> params) {
+        return new Scope(this.layout, params.toArray(new Value[this.layout.names.length]));
     }
 
     @Override
@@ -4,6 +4,7 @@ public class NumberVal extends Value {
     public final double content;
 
     public NumberVal(double content) {
+        super(Kind.NUMBER);
         this.content = content;
     }
 
@@ -12,8 +13,18 @@ public class NumberVal extends Value {
         return this;
     }
 
+    @Override
+    public NumberVal tryNumberVal() {
+        return this;
+    }
+
     @Override
     public String toString() {
         return Double.toString(this.content);
     }
+
+    @Override
+    public void write(Output out) throws MuaException {
+        out.append(this.content);
+    }
 }
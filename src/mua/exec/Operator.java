@@ -0,0 +1,68 @@
+package mua.exec;
+
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntPredicate;
+
+// builtins on two numbers, comparisons fall back to words if not both are numbers.
+// call sites apply them with feedback of their own, other callers go through run(),
+// as do all calls while profiling
+public abstract class Operator extends FunctionVal {
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L;
+
+    @FunctionalInterface
+    public interface NumberTest {
+        boolean test(double a, double b);
+    }
+
+    @Override
+    public int paramsCount() {
+        return 2;
+    }
+
+    @Override
+    public Value run(Scope globalScope, Scope outerScope, List<Value> params) throws MuaException {
+        if (!Profiler.ENABLED) return this.apply(params.get(0), params.get(1), Feedback.NONE, Feedback.NONE);
+        Profiler.enter(this.name);
+        try {
+            return this.apply(params.get(0), params.get(1), Feedback.NONE, Feedback.NONE);
+        } finally {
+            Profiler.exit();
+        }
+    }
+
+    public abstract Value apply(Value a, Value b, Feedback fa, Feedback fb) throws MuaException;
+
+    public static Operator arithmetic(DoubleBinaryOperator fn) {
+        return new Operator() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Value apply(Value a, Value b, Feedback fa, Feedback fb) throws MuaException {
+                double x = fa.number(a);
+                double y = fb.number(b);
+                return new NumberVal(fn.applyAsDouble(x, y));
+            }
+        };
+    }
+
+    // words are compared in lexicographical order, test is given result of compareTo()
+    public static Operator comparison(NumberTest numbers, IntPredicate words) {
+        return new Operator() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Value apply(Value a, Value b, Feedback fa, Feedback fb) throws MuaException {
+                if (fa.isNumber(a) && fb.isNumber(b)) {
+                    return BooleanVal.of(numbers.test(fa.number(a), fb.number(b)));
+                }
+                String x = a.asLiteralVal().content;
+                String y = b.asLiteralVal().content;
+                return BooleanVal.of(words.test(x.compareTo(y)));
+            }
+        };
+    }
+}
@@ -0,0 +1,93 @@
+package mua.exec;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+// where print writes to. text collects in a buffer, which is written out when it
+// fills up, on flush(), and after every line when line buffered
+public class Output implements AutoCloseable {
+    private static final int CAPACITY = 8192;
+
+    private final Writer writer;
+    private final boolean lineBuffered;
+    // both grow or are made once there is something written, output that stays
+    // unused costs nothing
+    private final StringBuilder buf = new StringBuilder();
+    private char[] chunk = null;
+
+    public Output(Writer writer, boolean lineBuffered) {
+        this.writer = writer;
+        this.lineBuffered = lineBuffered;
+    }
+
+    // standard output, line buffered when there is someone at the console to see it
+    public static Output stdout() {
+        return new Output(new OutputStreamWriter(System.out, Charset.defaultCharset()), System.console() != null);
+    }
+
+    public Output append(char ch) throws MuaException {
+        this.buf.append(ch);
+        return this.full();
+    }
+
+    public Output append(CharSequence text) throws MuaException {
+        this.buf.append(text);
+        return this.full();
+    }
+
+    // formatted like Double.toString(), without making the string
+    public Output append(double number) throws MuaException {
+        this.buf.append(number);
+        return this.full();
+    }
+
+    public void newline() throws MuaException {
+        this.buf.append('\n');
+        if (this.lineBuffered) this.flush();
+        else this.full();
+    }
+
+    // whether anything was written but not flushed yet
+    public boolean pending() {
+        return this.buf.length() > 0;
+    }
+
+    public void flush() throws MuaException {
+        try {
+            this.drain();
+            this.writer.flush();
+        } catch (IOException e) {
+            throw new MuaException(String.format("Cannot write output: %s", e.getMessage()));
+        }
+    }
+
+    private Output full() throws MuaException {
+        if (this.buf.length() >= CAPACITY) {
+            try {
+                this.drain();
+            } catch (IOException e) {
+                throw new MuaException(String.format("Cannot write output: %s", e.getMessage()));
+            }
+        }
+        return this;
+    }
+
+    private void drain() throws IOException {
+        if (this.buf.length() == 0) return;
+        if (this.chunk == null) this.chunk = new char[CAPACITY];
+        for (int start = 0; start < this.buf.length(); start += this.chunk.length) {
+            int end = Math.min(start + this.chunk.length, this.buf.length());
+            this.buf.getChars(start, end, this.chunk, 0);
+            this.writer.write(this.chunk, 0, end - start);
+        }
+        this.buf.setLength(0);
+    }
+
+    // flushes, the writer is left open since it is usually standard output
+    @Override
+    public void close() throws MuaException {
+        this.flush();
+    }
+}
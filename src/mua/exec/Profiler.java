@@ -0,0 +1,165 @@
+package mua.exec;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// keeps a stack of the functions running on each thread, when MUA_PROFILE or
+// MUA_SAMPLE name a file to report to at exit, - for standard error. callers check
+// ENABLED before anything else, so that when it is off the checks fold away.
+// MUA_PROFILE counts calls, time and bytes allocated per function name, MUA_SAMPLE
+// has the stacks sampled, see Sampler.
+//
+// a frame is entered when the body of a function starts and left when it finishes.
+// the body of a function called in tail position runs after its caller's body has
+// finished, so the TailCall carrying it carries its name as well, and whoever runs
+// it enters the frame. builtins returning code to run, like `if`, are left before
+// that code runs, which counts for the function running it
+public class Profiler {
+    private static final String PROFILE = System.getenv("MUA_PROFILE");
+    private static final String SAMPLE = System.getenv("MUA_SAMPLE");
+    public static final boolean ENABLED = PROFILE != null || SAMPLE != null;
+
+    // not loaded unless needed, it takes a while
+    private static final com.sun.management.ThreadMXBean threads =
+            PROFILE != null ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+
+    private static class Stats {
+        final String name;
+        final LongAdder calls = new LongAdder();
+        // time and allocation of frames that are not inside another of the same name,
+        // so recursion is counted once
+        final LongAdder totalNanos = new LongAdder();
+        final LongAdder totalBytes = new LongAdder();
+        final LongAdder selfNanos = new LongAdder();
+        final LongAdder selfBytes = new LongAdder();
+
+        Stats(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Frame {
+        Stats stats;
+        boolean outermost;
+        long startNanos;
+        long startBytes;
+        long childNanos;
+        long childBytes;
+    }
+
+    // frames of one thread, reused. names and size are read by the sampler while
+    // the thread changes them, which may give it a stack that is a frame off
+    static class Stack {
+        final Thread thread = Thread.currentThread();
+        Frame[] frames = new Frame[16];
+        volatile String[] names = new String[16];
+        volatile int size = 0;
+        // frames of each name on the stack
+        final Map<String, int[]> active = new HashMap<>();
+    }
+
+    private static final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Stack> stacks = ThreadLocal.withInitial(() -> {
+        Stack stack = new Stack();
+        if (SAMPLE != null) Sampler.register(stack);
+        return stack;
+    });
+
+    static {
+        if (PROFILE != null) Runtime.getRuntime().addShutdownHook(new Thread(() -> write(PROFILE, Profiler::report)));
+        if (SAMPLE != null) Sampler.start(SAMPLE);
+    }
+
+    public static void enter(String name) {
+        if (name == null) name = "?";
+        Stack stack = stacks.get();
+        int size = stack.size;
+        if (size == stack.frames.length) {
+            stack.frames = Arrays.copyOf(stack.frames, size * 2);
+            stack.names = Arrays.copyOf(stack.names, size * 2);
+        }
+        stack.names[size] = name;
+        stack.size = size + 1;
+        if (PROFILE == null) return;
+        Frame frame = stack.frames[size];
+        if (frame == null) frame = stack.frames[size] = new Frame();
+        frame.stats = stats.computeIfAbsent(name, Stats::new);
+        frame.outermost = stack.active.computeIfAbsent(name, key -> new int[1])[0]++ == 0;
+        frame.childNanos = 0;
+        frame.childBytes = 0;
+        frame.startBytes = threads.getCurrentThreadAllocatedBytes();
+        frame.startNanos = System.nanoTime();
+    }
+
+    public static void exit() {
+        Stack stack = stacks.get();
+        int size = stack.size - 1;
+        stack.names[size] = null;
+        stack.size = size;
+        if (PROFILE == null) return;
+        long nanos = System.nanoTime();
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        Frame frame = stack.frames[size];
+        nanos -= frame.startNanos;
+        bytes -= frame.startBytes;
+        Stats stats = frame.stats;
+        stats.calls.increment();
+        stats.selfNanos.add(nanos - frame.childNanos);
+        stats.selfBytes.add(bytes - frame.childBytes);
+        if (frame.outermost) {
+            stats.totalNanos.add(nanos);
+            stats.totalBytes.add(bytes);
+        }
+        --stack.active.get(stats.name)[0];
+        if (size > 0) {
+            Frame parent = stack.frames[size - 1];
+            parent.childNanos += nanos;
+            parent.childBytes += bytes;
+        }
+        frame.stats = null;
+    }
+
+    // frames entered on this thread and not left yet
+    public static int depth() {
+        return stacks.get().size;
+    }
+
+    // leave frames down to given depth, those an exception went through
+    public static void unwind(int depth) {
+        while (stacks.get().size > depth) exit();
+    }
+
+    // functions by self time, highest first
+    public static void report(PrintStream out) {
+        List<Stats> sorted = new ArrayList<>(stats.values());
+        sorted.sort((a, b) -> Long.compare(b.selfNanos.sum(), a.selfNanos.sum()));
+        out.printf("%-24s %10s %12s %12s %14s %14s%n", "function", "calls", "total ms", "self ms", "total bytes", "self bytes");
+        for (Stats s : sorted) {
+            out.printf("%-24s %10d %12.3f %12.3f %14d %14d%n", s.name, s.calls.sum(),
+                    s.totalNanos.sum() / 1e6, s.selfNanos.sum() / 1e6, s.totalBytes.sum(), s.selfBytes.sum());
+        }
+        out.flush();
+    }
+
+    // write a report to file, - for standard error
+    static void write(String file, Consumer<PrintStream> report) {
+        if (file.equals("-")) {
+            report.accept(System.err);
+            return;
+        }
+        try (PrintStream out = new PrintStream(file)) {
+            report.accept(out);
+        } catch (FileNotFoundException e) {
+            System.err.printf("Cannot write profile: %s%n", e.getMessage());
+        }
+    }
+}
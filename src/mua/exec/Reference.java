@@ -0,0 +1,91 @@
+package mua.exec;
+
+// a name where it is used in code, remembering where it was found last time. the
+// slot of a parameter is kept for the layout it was looked up in, and the cell of a
+// global variable until it dies or another global scope is used
+public final class Reference {
+    public final String name;
+
+    // both replaced as a whole, so a reference can be shared by code running on
+    // several threads
+    private Slot slot;
+    private Global global;
+
+    private static final class Slot {
+        final Scope.Layout layout;
+        final int index;
+
+        Slot(Scope.Layout layout, int index) {
+            this.layout = layout;
+            this.index = index;
+        }
+    }
+
+    private static final class Global {
+        final Scope scope;
+        final Scope.Cell cell;
+
+        Global(Scope scope, Scope.Cell cell) {
+            this.scope = scope;
+            this.cell = cell;
+        }
+    }
+
+    public Reference(String name) {
+        this.name = name;
+    }
+
+    public Value value(Scope globalScope, Scope localScope) throws MuaException {
+        if (localScope != globalScope) {
+            int slot = this.slot(localScope);
+            if (slot >= 0) {
+                Value value = localScope.slots[slot];
+                if (value != null) return value;
+            } else {
+                Scope.Entry entry = localScope.dynamic(this.name);
+                if (entry != null) return entry.value;
+            }
+        }
+        Scope.Entry entry = this.global(globalScope);
+        if (entry != null) return entry.value;
+        throw new MuaException(String.format("Variable \"%s\" not found in scope", this.name));
+    }
+
+    public FunctionVal function(Scope globalScope, Scope localScope) throws MuaException {
+        FunctionVal fn = this.value(globalScope, localScope).asFunctionVal();
+        if (Profiler.ENABLED && fn.name == null) fn.name = this.name;
+        return fn;
+    }
+
+    // whether a local variable hides the builtin of this name. unmodifiable entries
+    // are only created for builtins, which cannot be overwritten, so the global scope
+    // never hides them
+    public boolean shadowed(Scope globalScope, Scope localScope) {
+        if (localScope == globalScope) return false;
+        int slot = this.slot(localScope);
+        if (slot >= 0) return localScope.slots[slot] != null;
+        Scope.Entry entry = localScope.dynamic(this.name);
+        return entry != null && entry.modifiable;
+    }
+
+    private int slot(Scope scope) {
+        Slot slot = this.slot;
+        if (slot == null || slot.layout != scope.layout) {
+            slot = new Slot(scope.layout, scope.layout.slot(this.name));
+            this.slot = slot;
+        }
+        return slot.index;
+    }
+
+    private Scope.Entry global(Scope scope) {
+        Global global = this.global;
+        if (global != null && global.scope == scope) {
+            Scope.Entry entry = global.cell.entry;
+            if (entry != null) return entry;
+        }
+        Scope.Cell cell = scope.cell(this.name);
+        if (cell == null) return null;
+        this.global = new Global(scope, cell);
+        return cell.entry;
+    }
+}
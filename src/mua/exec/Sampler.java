@@ -0,0 +1,92 @@
+package mua.exec;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// looks at the function stacks the profiler keeps every MUA_SAMPLE_INTERVAL
+// milliseconds, 1 by default, and counts how often each was seen. at exit the
+// counts are written to MUA_SAMPLE in the collapsed format flame graph tools read,
+// one line per stack, the thread and the functions from outermost on separated by
+// semicolons, then the count. threads running no function are not counted
+class Sampler {
+    private static final Set<Profiler.Stack> stacks = ConcurrentHashMap.newKeySet();
+    // only touched by the sampling thread until it is stopped
+    private static final Map<String, long[]> counts = new HashMap<>();
+
+    static void register(Profiler.Stack stack) {
+        stacks.add(stack);
+    }
+
+    static void start(String file) {
+        long interval = interval(System.getenv("MUA_SAMPLE_INTERVAL"));
+        Thread sampler = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(interval);
+                    sample();
+                }
+            } catch (InterruptedException e) {
+                // stopped at exit
+            }
+        }, "mua-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            sampler.interrupt();
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                // report what there is
+            }
+            Profiler.write(file, Sampler::report);
+        }));
+    }
+
+    private static long interval(String value) {
+        if (value == null) return 1;
+        try {
+            return Math.max(1, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    private static void sample() {
+        StringBuilder buf = new StringBuilder();
+        for (Profiler.Stack stack : stacks) {
+            if (!stack.thread.isAlive()) {
+                stacks.remove(stack);
+                continue;
+            }
+            // names before size, a larger array might not be seen yet
+            String[] names = stack.names;
+            int size = Math.min(stack.size, names.length);
+            if (size == 0) continue;
+            buf.setLength(0);
+            buf.append(stack.thread.getName());
+            for (int i = 0; i < size; ++i) {
+                String name = names[i];
+                // left while being copied
+                if (name == null) break;
+                buf.append(';').append(name);
+            }
+            ++counts.computeIfAbsent(buf.toString(), key -> new long[1])[0];
+        }
+    }
+
+    private static void report(PrintStream out) {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.comparingByKey());
+        for (Map.Entry<String, long[]> entry : entries) {
+            out.print(entry.getKey());
+            out.print(' ');
+            out.println(entry.getValue()[0]);
+        }
+        out.flush();
+    }
+}
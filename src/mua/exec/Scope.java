@@ -2,6 +2,7 @@ package mua.exec;
 
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class Scope implements Serializable {
@@ -25,39 +26,175 @@ public class Scope implements Serializable {
         }
     }
 
-    public final HashMap<String, Entry> variables;
+    // holds the entry of one variable. erasing a variable kills its cell, so code
+    // that kept the cell knows to look the name up again, see Reference
+    public static final class Cell implements Serializable {
+        /**
+         *
+         */
+        private static final long serialVersionUID = 2286213802584751592L;
+
+        // null once dead
+        public Entry entry;
+
+        Cell(Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    // names of the parameters of a function, in the order of their slots
+    public static final class Layout implements Serializable {
+        /**
+         *
+         */
+        private static final long serialVersionUID = -6093524839569160530L;
+
+        public static final Layout EMPTY = new Layout(new String[0]);
+
+        public final String[] names;
+
+        public Layout(String[] names) {
+            this.names = names;
+        }
+
+        // slot of given name, -1 if not a parameter. a later parameter of the same
+        // name hides the earlier ones
+        public int slot(String name) {
+            for (int i = this.names.length - 1; i >= 0; --i) {
+                if (this.names[i].equals(name)) return i;
+            }
+            return -1;
+        }
+    }
+
     public final boolean inFunction;
+    public final Layout layout;
+    // values of the parameters, null once erased. parameters are always modifiable
+    final Value[] slots;
+    // all other variables, created on first use
+    private HashMap<String, Cell> cells;
+    // builtins, looked up after the variables. shared by all global scopes and
+    // never changed, so they cannot be put or removed here, only read
+    private final Map<String, Cell> builtins;
+    // environment of a global scope, for builtins using its input and output
+    transient Environment environment;
 
     public Scope(boolean inFunction) {
-        variables = new HashMap<>();
+        this(inFunction, Layout.EMPTY, new Value[0], Map.of());
+    }
+
+    // scope of a function call, with the values of its parameters
+    public Scope(Layout layout, Value[] slots) {
+        this(true, layout, slots, Map.of());
+    }
+
+    // global scope of an environment
+    Scope(Environment environment, Map<String, Cell> builtins) {
+        this(false, Layout.EMPTY, new Value[0], builtins);
+        this.environment = environment;
+    }
+
+    private Scope(boolean inFunction, Layout layout, Value[] slots, Map<String, Cell> builtins) {
         this.inFunction = inFunction;
+        this.layout = layout;
+        this.slots = slots;
+        this.cells = null;
+        this.builtins = builtins;
+    }
+
+    // entry of given name in this scope, null if there is none
+    public Entry get(String name) {
+        int slot = this.layout.slot(name);
+        if (slot >= 0) {
+            Value value = this.slots[slot];
+            return value == null ? null : new Entry(true, value);
+        }
+        return this.dynamic(name);
+    }
+
+    public void put(String name, Entry entry) {
+        int slot = this.layout.slot(name);
+        if (slot >= 0) {
+            this.slots[slot] = entry.value;
+            return;
+        }
+        if (this.cells == null) this.cells = new HashMap<>();
+        Cell cell = this.cells.get(name);
+        if (cell == null) this.cells.put(name, new Cell(entry));
+        else cell.entry = entry;
+    }
+
+    // remove the entry of given name, returns it or null if there is none
+    public Entry remove(String name) {
+        int slot = this.layout.slot(name);
+        if (slot >= 0) {
+            Value value = this.slots[slot];
+            this.slots[slot] = null;
+            return value == null ? null : new Entry(true, value);
+        }
+        if (this.cells == null) return null;
+        Cell cell = this.cells.remove(name);
+        if (cell == null) return null;
+        Entry entry = cell.entry;
+        cell.entry = null;
+        return entry;
+    }
+
+    // copy of all entries but the builtins, for builtins working on the whole scope.
+    // parameters come first, then the other variables in the order of the map they
+    // are kept in
+    public Map<String, Entry> variables() {
+        Map<String, Entry> variables = new LinkedHashMap<>();
+        for (int i = 0; i < this.slots.length; ++i) {
+            if (this.slots[i] != null) variables.put(this.layout.names[i], new Entry(true, this.slots[i]));
+        }
+        if (this.cells != null) {
+            for (Map.Entry<String, Cell> cell : this.cells.entrySet()) {
+                variables.put(cell.getKey(), cell.getValue().entry);
+            }
+        }
+        return variables;
+    }
+
+    // entry of a variable that is not a parameter, null if there is none
+    Entry dynamic(String name) {
+        Cell cell = this.cell(name);
+        return cell == null ? null : cell.entry;
+    }
+
+    // live cell of a variable that is not a parameter, null if there is none
+    Cell cell(String name) {
+        Cell cell = this.cells == null ? null : this.cells.get(name);
+        return cell != null ? cell : this.builtins.get(name);
     }
 
     public static Value getValue(Scope globalScope, Scope localScope, String name) throws MuaException {
-        if (localScope.variables.containsKey(name)) return localScope.variables.get(name).value;
-        if (globalScope.variables.containsKey(name)) return globalScope.variables.get(name).value;
+        Entry entry = localScope.get(name);
+        if (entry == null) entry = globalScope.get(name);
+        if (entry != null) return entry.value;
         throw new MuaException(String.format("Variable \"%s\" not found in scope", name));
     }
 
     // generate a temporary scope with all local values removed
     public Scope removeInternals() {
         Scope ret = new Scope(this.inFunction);
-        for (Map.Entry<String, Entry> entry : this.variables.entrySet()) {
+        for (Map.Entry<String, Entry> entry : this.variables().entrySet()) {
             if (!entry.getValue().modifiable) continue;
-            ret.variables.put(entry.getKey(), entry.getValue());
+            ret.put(entry.getKey(), entry.getValue());
         }
         return ret;
     }
 
     // merge given scope into current, throwing an exception on overwriting an unmodifiable variable
     public void mergeScope(Scope scope) throws MuaException {
-        for (Map.Entry<String, Entry> entry : scope.variables.entrySet()) {
+        for (Map.Entry<String, Entry> entry : scope.variables().entrySet()) {
             if (!entry.getValue().modifiable) continue;
             String key = entry.getKey();
-            if (this.variables.containsKey(key) && !this.variables.get(key).modifiable) {
+            Entry old = this.get(key);
+            if (old != null && !old.modifiable) {
                 throw new MuaException(String.format("Trying to overwrite unmodifiable variable \"%s\"", key));
             }
-            this.variables.put(key, entry.getValue());
+            this.put(key, entry.getValue());
         }
     }
 }
@@ -0,0 +1,416 @@
+package mua.exec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import mua.ast.Parser;
+import mua.token.BracketToken;
+import mua.token.MathToken;
+import mua.token.OpToken;
+import mua.token.Token;
+import mua.token.Tokenizer;
+import mua.token.WordToken;
+
+// tokens of files run, kept in MUA_CACHE when it names a directory, so that a file
+// seen before is not tokenized again. an entry is named by the SHA-256 of the
+// interpreter and the file's bytes, where the interpreter is the version of the
+// jar it runs from and the tokenizer's own class file, so any change to either
+// misses. entries are written to a temporary file and moved in place once the
+// whole file was tokenized, and are checked against their name and a CRC32 of
+// their content before being used, those failing are removed. the least recently
+// used are removed once the directory holds more than MUA_CACHE_SIZE megabytes,
+// 256 by default
+//
+// after MAGIC, VERSION and the key, an entry has a record per token and END, then
+// the CRC32 of everything before it. words are strings the first time they are
+// seen, up to WORDS of them, and their index among those after
+class ScriptCache {
+    private static final Path DIR = dir(System.getenv("MUA_CACHE"));
+    private static final long LIMIT = limit(System.getenv("MUA_CACHE_SIZE"));
+
+    private static final byte[] MAGIC = { 0, 'M', 'T', 'K' };
+    private static final int VERSION = 1;
+    private static final int KEY = 32;
+    private static final int WORDS = 1 << 16;
+
+    private static final int LEFT = 0;
+    private static final int RIGHT = 1;
+    private static final int MATH = 2;          // byte, the operator
+    private static final int OP = 3;            // string name
+    private static final int WORD = 4;          // string
+    private static final int WORD_SEEN = 5;     // index of word
+    private static final int END = 0xff;
+
+    private static final int BATCH = 4096;
+
+    // sha-256 of what makes tokens of the same file differ, computed on first use
+    private static byte[] interpreter = null;
+
+    private static Path dir(String value) {
+        if (value == null || value.isEmpty()) return null;
+        try {
+            Path dir = Paths.get(value);
+            Files.createDirectories(dir);
+            return dir;
+        } catch (IOException | RuntimeException e) {
+            System.err.printf("Cannot use script cache: %s%n", e.getMessage());
+            return null;
+        }
+    }
+
+    private static long limit(String value) {
+        long megabytes = 256;
+        if (value != null) {
+            try {
+                megabytes = Math.max(0, Long.parseLong(value));
+            } catch (NumberFormatException e) {
+                // default
+            }
+        }
+        return megabytes << 20;
+    }
+
+    // tokens of a file, which the caller closes when done with them
+    interface Source extends Parser.Source, AutoCloseable {
+        @Override
+        void close();
+    }
+
+    static Source open(Path file) throws IOException {
+        if (DIR == null) return new Recorded(new FileSource(file), null);
+        byte[] key = key(file);
+        Path entry = DIR.resolve(hex(key));
+        ByteBuffer tokens = read(entry, key);
+        if (tokens != null) return new Cached(tokens);
+        FileSource source = new FileSource(file);
+        Writer writer;
+        try {
+            writer = new Writer(entry, key);
+        } catch (IOException e) {
+            // the directory went away, is read only or full, run without caching
+            System.err.printf("Cannot use script cache: %s%n", e.getMessage());
+            writer = null;
+        }
+        return new Recorded(source, writer);
+    }
+
+    private static byte[] key(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(interpreter());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > 0) digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+        return digest.digest();
+    }
+
+    private static synchronized byte[] interpreter() throws IOException {
+        if (interpreter == null) {
+            MessageDigest digest = sha256();
+            digest.update((byte) VERSION);
+            String version = Tokenizer.class.getPackage().getImplementationVersion();
+            if (version != null) digest.update(version.getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = Tokenizer.class.getResourceAsStream("Tokenizer.class")) {
+                if (in == null) throw new IOException("Cannot find tokenizer");
+                digest.update(in.readAllBytes());
+            }
+            interpreter = digest.digest();
+        }
+        return interpreter;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) buf.append(Character.forDigit(b >> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return buf.toString();
+    }
+
+    // records of a valid entry, null if there is none
+    private static ByteBuffer read(Path entry, byte[] key) {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            return null;
+        }
+        int header = MAGIC.length + 1 + KEY;
+        boolean valid = buf.limit() >= header + 5;
+        for (int i = 0; valid && i < MAGIC.length; ++i) valid = buf.get(i) == MAGIC[i];
+        valid = valid && buf.get(MAGIC.length) == VERSION;
+        for (int i = 0; valid && i < KEY; ++i) valid = buf.get(MAGIC.length + 1 + i) == key[i];
+        if (valid) {
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate().limit(buf.limit() - 4));
+            valid = (int) crc.getValue() == buf.getInt(buf.limit() - 4);
+        }
+        if (!valid) {
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException e) {
+                // tried again when next seen
+            }
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // only the order of eviction is off
+        }
+        return buf.position(header).limit(buf.limit() - 4).slice();
+    }
+
+    // tokens read back from an entry, a batch at a time, which goes on until the
+    // lists in it are closed
+    private static class Cached implements Source {
+        private static final Token LEFT_TOKEN = new BracketToken(BracketToken.Type.LEFT);
+        private static final Token RIGHT_TOKEN = new BracketToken(BracketToken.Type.RIGHT);
+
+        private final ByteBuffer buf;
+        private final List<String> words = new ArrayList<>();
+        private final Map<Integer, Token> ops = new HashMap<>();
+        // lists left open
+        private int level = 0;
+        private boolean done = false;
+
+        Cached(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public List<Token> more() throws MuaException {
+            if (this.done) return null;
+            List<Token> tokens = new ArrayList<>(BATCH);
+            try {
+                while (tokens.size() < BATCH || this.level > 0) {
+                    int tag = this.buf.get() & 0xff;
+                    switch (tag) {
+                        case LEFT:
+                            tokens.add(LEFT_TOKEN);
+                            ++this.level;
+                            break;
+                        case RIGHT:
+                            tokens.add(RIGHT_TOKEN);
+                            --this.level;
+                            break;
+                        case MATH:
+                        {
+                            int op = this.buf.get() & 0xff;
+                            tokens.add(this.ops.computeIfAbsent(op, ch -> new MathToken(Character.toString((char) (int) ch))));
+                            break;
+                        }
+                        case OP:
+                            tokens.add(new OpToken(Snapshot.string(this.buf)));
+                            break;
+                        case WORD:
+                        {
+                            String word = Snapshot.string(this.buf);
+                            if (this.words.size() < WORDS) this.words.add(word);
+                            tokens.add(new WordToken(word));
+                            break;
+                        }
+                        case WORD_SEEN:
+                        {
+                            long index = Snapshot.varint(this.buf);
+                            if (index >= this.words.size()) throw corrupt();
+                            tokens.add(new WordToken(this.words.get((int) index)));
+                            break;
+                        }
+                        case END:
+                            this.done = true;
+                            return tokens;
+                        default:
+                            throw corrupt();
+                    }
+                }
+            } catch (BufferUnderflowException e) {
+                throw corrupt();
+            }
+            return tokens;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static MuaException corrupt() {
+        return new MuaException("Corrupt script cache entry");
+    }
+
+    // tokens of the file being tokenized, written into a new entry as they are given
+    // out. the entry is only kept if all of them were
+    private static class Recorded implements Source {
+        private final FileSource source;
+        private Writer writer;
+
+        Recorded(FileSource source, Writer writer) {
+            this.source = source;
+            this.writer = writer;
+        }
+
+        @Override
+        public List<Token> more() throws MuaException {
+            List<Token> tokens = this.source.more();
+            if (this.writer == null) return tokens;
+            try {
+                if (tokens == null) {
+                    this.writer.commit();
+                    this.writer = null;
+                } else {
+                    this.writer.write(tokens);
+                }
+            } catch (IOException e) {
+                // run without caching
+                this.close();
+            }
+            return tokens;
+        }
+
+        @Override
+        public void close() {
+            if (this.writer != null) this.writer.abort();
+            this.writer = null;
+        }
+    }
+
+    private static class Writer {
+        private final Path entry;
+        private final Path temp;
+        private final OutputStream file;
+        private final CheckedOutputStream checked;
+        private final DataOutputStream out;
+        private final Map<String, Integer> words = new HashMap<>();
+
+        Writer(Path entry, byte[] key) throws IOException {
+            this.entry = entry;
+            this.temp = Files.createTempFile(DIR, entry.getFileName().toString(), ".tmp");
+            try {
+                this.file = new BufferedOutputStream(Files.newOutputStream(this.temp));
+            } catch (IOException e) {
+                Files.deleteIfExists(this.temp);
+                throw e;
+            }
+            this.checked = new CheckedOutputStream(this.file, new CRC32());
+            this.out = new DataOutputStream(this.checked);
+            this.out.write(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.write(key);
+        }
+
+        void write(List<Token> tokens) throws IOException {
+            for (Token token : tokens) {
+                if (token instanceof WordToken) {
+                    String word = ((WordToken) token).value;
+                    Integer index = this.words.get(word);
+                    if (index != null) {
+                        this.out.writeByte(WORD_SEEN);
+                        Snapshot.varint(this.out, index);
+                    } else {
+                        this.out.writeByte(WORD);
+                        Snapshot.string(this.out, word);
+                        if (this.words.size() < WORDS) this.words.put(word, this.words.size());
+                    }
+                } else if (token instanceof BracketToken) {
+                    this.out.writeByte(((BracketToken) token).type == BracketToken.Type.LEFT ? LEFT : RIGHT);
+                } else if (token instanceof MathToken) {
+                    this.out.writeByte(MATH);
+                    this.out.writeByte(((MathToken) token).op.charAt(0));
+                } else if (token instanceof OpToken) {
+                    this.out.writeByte(OP);
+                    Snapshot.string(this.out, ((OpToken) token).name);
+                } else {
+                    throw new IOException(String.format("Cannot cache token %s", token));
+                }
+            }
+        }
+
+        void commit() throws IOException {
+            this.out.writeByte(END);
+            this.out.flush();
+            int crc = (int) this.checked.getChecksum().getValue();
+            byte[] trailer = ByteBuffer.allocate(4).putInt(crc).array();
+            this.file.write(trailer);
+            this.file.close();
+            Files.move(this.temp, this.entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        }
+
+        void abort() {
+            try {
+                this.file.close();
+            } catch (IOException e) {
+                // removed anyway
+            }
+            try {
+                Files.deleteIfExists(this.temp);
+            } catch (IOException e) {
+                // left for eviction
+            }
+        }
+    }
+
+    // remove least recently used entries until those left fit in LIMIT, along with
+    // temporary files not written to for a day, left by processes that died
+    private static void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        Map<Path, long[]> stats = new HashMap<>();
+        long total = 0;
+        long stale = System.currentTimeMillis() - 24 * 3600 * 1000L;
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(DIR)) {
+            for (Path path : dir) {
+                try {
+                    long modified = Files.getLastModifiedTime(path).toMillis();
+                    if (path.getFileName().toString().endsWith(".tmp")) {
+                        if (modified < stale) Files.deleteIfExists(path);
+                        continue;
+                    }
+                    long size = Files.size(path);
+                    entries.add(path);
+                    stats.put(path, new long[] { modified, size });
+                    total += size;
+                } catch (IOException e) {
+                    // removed by another process meanwhile
+                }
+            }
+        }
+        if (total <= LIMIT) return;
+        Path[] sorted = entries.toArray(new Path[0]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(stats.get(a)[0], stats.get(b)[0]));
+        for (Path path : sorted) {
+            if (total <= LIMIT) break;
+            Files.deleteIfExists(path);
+            total -= stats.get(path)[1];
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package mua.exec;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// immutable range of a block of values shared between lists. a slice never sees
+// slots outside its range, so dropping an element from either end is a new range
+// over the same block, and appending writes into the unused slots after the block's
+// last claimed one, which only the first slice ending there may claim. other slices
+// copy into a new block of twice the size, so appending is amortized O(1)
+public final class Slice extends AbstractList<Value> implements RandomAccess, Serializable {
+    /**
+     *
+     */
+    private static final long serialVersionUID = -2618153418924870651L;
+
+    public static final Slice EMPTY = new Slice(new Block(0), 0, 0);
+
+    private static final class Block {
+        final Value[] values;
+        // slots in use, those after it can be claimed by the slice ending there
+        final AtomicInteger used;
+
+        Block(int capacity) {
+            this(new Value[capacity], 0);
+        }
+
+        Block(Value[] values, int used) {
+            this.values = values;
+            this.used = new AtomicInteger(used);
+        }
+    }
+
+    private final transient Block block;
+    private final transient int from;
+    private final transient int to;
+
+    private Slice(Block block, int from, int to) {
+        this.block = block;
+        this.from = from;
+        this.to = to;
+    }
+
+    public static Slice of(List<Value> values) {
+        if (values instanceof Slice) return (Slice) values;
+        return EMPTY.concat(values);
+    }
+
+    // the first size values of an array nothing else is going to write to
+    static Slice of(Value[] values, int size) {
+        return new Slice(new Block(values, size), 0, size);
+    }
+
+    @Override
+    public Value get(int index) {
+        if (index < 0 || index >= this.to - this.from)
+            throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, this.to - this.from));
+        return this.block.values[this.from + index];
+    }
+
+    @Override
+    public int size() {
+        return this.to - this.from;
+    }
+
+    // all but the first value, empty if there are none
+    public Slice butFirst() {
+        return this.from == this.to ? this : new Slice(this.block, this.from + 1, this.to);
+    }
+
+    // all but the last value, empty if there are none
+    public Slice butLast() {
+        return this.from == this.to ? this : new Slice(this.block, this.from, this.to - 1);
+    }
+
+    public Slice append(Value value) {
+        return this.concat(Arrays.asList(value));
+    }
+
+    public Slice concat(List<Value> values) {
+        int count = values.size();
+        if (count == 0) return this;
+        Block block = this.block;
+        int from = this.from;
+        int end = this.to + count;
+        if (end > block.values.length || !block.used.compareAndSet(this.to, end)) {
+            // someone else appended here already, or no room left
+            int size = this.to - this.from;
+            block = new Block(Math.max(size + count, size * 2));
+            System.arraycopy(this.block.values, this.from, block.values, 0, size);
+            block.used.set(size + count);
+            from = 0;
+            end = size + count;
+        }
+        int i = end - count;
+        for (Value value : values) block.values[i++] = value;
+        return new Slice(block, from, end);
+    }
+
+    // only the values in range are written, not the whole block
+    private Object writeReplace() {
+        return new Serialized(this.toArray(new Value[0]));
+    }
+
+    private static final class Serialized implements Serializable {
+        /**
+         *
+         */
+        private static final long serialVersionUID = 4137320850627398815L;
+
+        private final Value[] values;
+
+        Serialized(Value[] values) {
+            this.values = values;
+        }
+
+        private Object readResolve() {
+            return Slice.of(Arrays.asList(this.values));
+        }
+    }
+}
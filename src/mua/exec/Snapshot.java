@@ -0,0 +1,231 @@
+package mua.exec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// variables saved as they are, instead of as the code making them. after a header
+// of MAGIC and VERSION comes a record per value, each value written once before
+// the first one holding it, so values kept in several places are shared again when
+// loaded, then a record per variable naming its value, and END. values are referred
+// to by their index among the value records. counts, indices and lengths are
+// unsigned varints, 7 bits a byte with the high bit set on all but the last, whole
+// numbers zigzag encoded varints and other numbers big endian doubles. strings are
+// their length in UTF-8 bytes followed by the bytes
+class Snapshot {
+    private static final byte[] MAGIC = { 0, 'M', 'U', 'A' };
+    private static final int VERSION = 1;
+
+    private static final int NUMBER = 0;        // double
+    private static final int INTEGER = 1;      // zigzag varint of a whole number
+    private static final int WORD = 2;         // string
+    private static final int BOOLEAN = 3;      // byte, 0 or 1
+    private static final int LIST = 4;         // count, then index of each element
+    private static final int VARIABLE = 5;     // string name, index of value
+    private static final int END = 0xff;
+
+    private static class Writer {
+        final DataOutputStream out;
+        // index of each value written
+        final Map<Value, Integer> values = new IdentityHashMap<>();
+        final Map<String, Integer> words = new HashMap<>();
+        int count = 0;
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        int value(Value value) throws IOException, MuaException {
+            Integer index = this.values.get(value);
+            if (index != null) return index;
+            if (value instanceof LiteralVal) {
+                String content = ((LiteralVal) value).content;
+                index = this.words.get(content);
+                if (index == null) {
+                    this.out.writeByte(WORD);
+                    this.string(content);
+                    index = this.count++;
+                    this.words.put(content, index);
+                }
+            } else if (value instanceof NumberVal) {
+                double content = ((NumberVal) value).content;
+                long whole = (long) content;
+                // -0.0 is not whole, its sign would be lost
+                if (whole == content && Double.doubleToRawLongBits(content) != Long.MIN_VALUE) {
+                    this.out.writeByte(INTEGER);
+                    this.varint(whole << 1 ^ whole >> 63);
+                } else {
+                    this.out.writeByte(NUMBER);
+                    this.out.writeDouble(content);
+                }
+                index = this.count++;
+            } else if (value instanceof BooleanVal) {
+                this.out.writeByte(BOOLEAN);
+                this.out.writeByte(((BooleanVal) value).content ? 1 : 0);
+                index = this.count++;
+            } else if (value instanceof ListVal) {
+                Slice elements = ((ListVal) value).elements;
+                int[] indices = new int[elements.size()];
+                for (int i = 0; i < indices.length; ++i) indices[i] = this.value(elements.get(i));
+                this.out.writeByte(LIST);
+                this.varint(indices.length);
+                for (int i : indices) this.varint(i);
+                index = this.count++;
+            } else {
+                throw new MuaException(String.format("Cannot save value: %s", value));
+            }
+            this.values.put(value, index);
+            return index;
+        }
+
+        void string(String str) throws IOException {
+            Snapshot.string(this.out, str);
+        }
+
+        void varint(long value) throws IOException {
+            Snapshot.varint(this.out, value);
+        }
+    }
+
+    // strings and varints as they are written here, for other formats to share
+
+    static void string(DataOutput out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        varint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static void varint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static void save(Path file, Map<String, Scope.Entry> variables) throws IOException, MuaException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            Writer writer = new Writer(out);
+            for (Map.Entry<String, Scope.Entry> entry : variables.entrySet()) {
+                int index = writer.value(entry.getValue().value);
+                out.writeByte(VARIABLE);
+                writer.string(entry.getKey());
+                writer.varint(index);
+            }
+            out.writeByte(END);
+        }
+    }
+
+    // make the variables of a snapshot in scope, false if the file is not one. the
+    // file is mapped and read in place
+    static boolean load(Path file, Scope scope) throws IOException, MuaException {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.remaining() < MAGIC.length) return false;
+        for (byte b : MAGIC) {
+            if (buf.get() != b) return false;
+        }
+        try {
+            int version = buf.get() & 0xff;
+            if (version != VERSION) throw new MuaException(String.format("Unsupported snapshot version %d", version));
+            List<Value> values = new ArrayList<>();
+            while (true) {
+                int tag = buf.get() & 0xff;
+                switch (tag) {
+                    case NUMBER:
+                        values.add(new NumberVal(buf.getDouble()));
+                        break;
+                    case INTEGER:
+                    {
+                        long zigzag = varint(buf);
+                        values.add(new NumberVal(zigzag >>> 1 ^ -(zigzag & 1)));
+                        break;
+                    }
+                    case WORD:
+                        values.add(new LiteralVal(string(buf)));
+                        break;
+                    case BOOLEAN:
+                        values.add(BooleanVal.of(buf.get() != 0));
+                        break;
+                    case LIST:
+                    {
+                        int size = size(buf);
+                        Value[] elements = new Value[size];
+                        for (int i = 0; i < size; ++i) elements[i] = value(values, buf);
+                        values.add(new ListVal(Slice.of(elements, size)));
+                        break;
+                    }
+                    case VARIABLE:
+                    {
+                        String name = string(buf);
+                        Value value = value(values, buf);
+                        Scope.Entry entry = scope.get(name);
+                        if (entry != null && !entry.modifiable) {
+                            throw new MuaException(String.format("Cannot overrite variable \"%s\"", name));
+                        }
+                        scope.put(name, new Scope.Entry(true, value));
+                        break;
+                    }
+                    case END:
+                        return true;
+                    default:
+                        throw corrupt();
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw corrupt();
+        }
+    }
+
+    static long varint(ByteBuffer buf) throws MuaException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = buf.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+        throw corrupt();
+    }
+
+    // count of things each taking at least a byte of what is left
+    static int size(ByteBuffer buf) throws MuaException {
+        long size = varint(buf);
+        if (size > buf.remaining()) throw corrupt();
+        return (int) size;
+    }
+
+    static String string(ByteBuffer buf) throws MuaException {
+        int length = size(buf);
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // values may only refer to those before them
+    private static Value value(List<Value> values, ByteBuffer buf) throws MuaException {
+        long index = varint(buf);
+        if (index >= values.size()) throw corrupt();
+        return values.get((int) index);
+    }
+
+    private static MuaException corrupt() {
+        return new MuaException("Corrupt snapshot");
+    }
+}
@@ -0,0 +1,30 @@
+package mua.exec;
+
+// code left to run as the last step of a function, returned by runTail() instead of
+// running it, so that the caller in tail position can give it to the trampoline in
+// Runner.execCode() after its own frames are gone. never escapes execCode()
+public class TailCall extends Value {
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L;
+
+    public final Scope globalScope;
+    public final Scope localScope;
+    public final Code code;
+    // function the code is the body of, when its profiler frame is to be entered
+    // for running it, see Profiler
+    public final String name;
+
+    public TailCall(Scope globalScope, Scope localScope, Code code) {
+        this(globalScope, localScope, code, null);
+    }
+
+    public TailCall(Scope globalScope, Scope localScope, Code code, String name) {
+        super(Kind.TAIL_CALL);
+        this.globalScope = globalScope;
+        this.localScope = localScope;
+        this.code = code;
+        this.name = name;
+    }
+}
@@ -2,78 +2,82 @@ package mua.exec;
 
 import java.io.Serializable;
 
+import mua.Metrics;
+
 public class Value implements Serializable {
     /**
      *
      */
     private static final long serialVersionUID = 5790626257369920438L;
 
+    // what a value is, without trying conversions
+    public enum Kind {
+        NUMBER, WORD, BOOLEAN, LIST, FUNCTION, TAIL_CALL
+    }
+
+    public final Kind kind;
+
+    protected Value(Kind kind) {
+        this.kind = kind;
+        if (Metrics.ENABLED) Metrics.value(kind);
+    }
+
     public BooleanVal asBooleanVal() throws MuaException {
-        throw new MuaException(String.format("Cannot convert to boolean: %s", this));
+        throw new MuaException(String.format("Cannot convert to boolean: %s", this), false);
     }
 
     public FunctionVal asFunctionVal() throws MuaException {
-        throw new MuaException(String.format("Cannot convert to function: %s", this));
+        throw new MuaException(String.format("Cannot convert to function: %s", this), false);
     }
 
     public ListVal asListVal() throws MuaException {
-        throw new MuaException(String.format("Cannot convert to list: %s", this));
+        throw new MuaException(String.format("Cannot convert to list: %s", this), false);
     }
 
     public LiteralVal asLiteralVal() throws MuaException {
-        throw new MuaException(String.format("Cannot convert to literal: %s", this));
+        throw new MuaException(String.format("Cannot convert to literal: %s", this), false);
     }
 
     public NumberVal asNumberVal() throws MuaException {
-        throw new MuaException(String.format("Cannot convert to number: %s", this));
+        throw new MuaException(String.format("Cannot convert to number: %s", this), false);
     }
 
+    // conversions that give null instead of throwing
+    public NumberVal tryNumberVal() {
+        return null;
+    }
+
+    public BooleanVal tryBooleanVal() {
+        return null;
+    }
+
+    // whether the matching asXxx() succeeds, overridden along with it, never throws
     public boolean isBooleanVal() {
-        try {
-            this.asBooleanVal();
-            return true;
-        } catch (MuaException e) {
-            return false;
-        }
+        return this.tryBooleanVal() != null;
     }
 
     public boolean isNumberVal() {
-        try {
-            this.asNumberVal();
-            return true;
-        } catch (MuaException e) {
-            return false;
-        }
+        return this.tryNumberVal() != null;
     }
 
     public boolean isListVal() {
-        try {
-            this.asListVal();
-            return true;
-        } catch (MuaException e) {
-            return false;
-        }
+        return false;
     }
 
     public boolean isLiteralVal() {
-        try {
-            this.asLiteralVal();
-            return true;
-        } catch (MuaException e) {
-            return false;
-        }
+        return false;
     }
 
     public boolean isFunctionVal() {
-        try {
-            this.asFunctionVal();
-            return true;
-        } catch (MuaException e) {
-            return false;
-        }
+        return false;
     }
 
     public String toMakableString() throws MuaException {
         return this.toString();
     }
+
+    // print the value, the same text as toString()
+    public void write(Output out) throws MuaException {
+        out.append(this.toString());
+    }
 }
@@ -0,0 +1,310 @@
+package mua.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// just enough of a class file writer for compiled code, a class with one final
+// Object[] field, a constructor setting it, and one method.
+// version 49 is used so that no stack map frames have to be computed
+class Assembler {
+    public static class Label {
+        private int position = -1;
+        private final List<Integer> fixups = new ArrayList<>();
+    }
+
+    private static final int VERSION = 49;
+
+    // opcodes used
+    public static final int ACONST_NULL = 0x01;
+    public static final int ICONST_0 = 0x03;
+    public static final int BIPUSH = 0x10;
+    public static final int SIPUSH = 0x11;
+    public static final int LDC_W = 0x13;
+    public static final int ILOAD = 0x15;
+    public static final int DLOAD = 0x18;
+    public static final int ALOAD = 0x19;
+    public static final int AALOAD = 0x32;
+    public static final int DSTORE = 0x39;
+    public static final int ASTORE = 0x3a;
+    public static final int AASTORE = 0x53;
+    public static final int POP = 0x57;
+    public static final int DUP = 0x59;
+    public static final int DADD = 0x63;
+    public static final int DSUB = 0x67;
+    public static final int DMUL = 0x6b;
+    public static final int DDIV = 0x6f;
+    public static final int DREM = 0x73;
+    public static final int DNEG = 0x77;
+    public static final int IFEQ = 0x99;
+    public static final int IFNE = 0x9a;
+    public static final int IF_ICMPNE = 0xa0;
+    public static final int IF_ACMPNE = 0xa6;
+    public static final int GOTO = 0xa7;
+    public static final int ARETURN = 0xb0;
+    public static final int RETURN = 0xb1;
+    public static final int GETFIELD = 0xb4;
+    public static final int PUTFIELD = 0xb5;
+    public static final int INVOKEVIRTUAL = 0xb6;
+    public static final int INVOKESPECIAL = 0xb7;
+    public static final int INVOKESTATIC = 0xb8;
+    public static final int INVOKEINTERFACE = 0xb9;
+    public static final int ANEWARRAY = 0xbd;
+    public static final int CHECKCAST = 0xc0;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(this.pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolSize = 1;
+
+    private final String name;
+    private final String[] interfaces;
+
+    private ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private int depth = 0;
+    private int maxDepth = 0;
+    private int maxLocals;
+
+    public Assembler(String name, String[] interfaces) {
+        this.name = name;
+        this.interfaces = interfaces;
+    }
+
+    // constant pool, entries are deduplicated by their encoding
+    private int entry(String key, int tag, int a, int b, String utf) {
+        Integer index = this.entries.get(key);
+        if (index != null) return index;
+        try {
+            this.poolOut.writeByte(tag);
+            if (utf != null) {
+                this.poolOut.writeUTF(utf);
+            } else if (tag == 3) {
+                this.poolOut.writeInt(a);
+            } else {
+                this.poolOut.writeShort(a);
+                if (b >= 0) this.poolOut.writeShort(b);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.entries.put(key, this.poolSize);
+        return this.poolSize++;
+    }
+
+    public int utf8(String value) {
+        return this.entry("u" + value, 1, 0, -1, value);
+    }
+
+    public int classRef(String name) {
+        return this.entry("c" + name, 7, this.utf8(name), -1, null);
+    }
+
+    public int string(String value) {
+        return this.entry("s" + value, 8, this.utf8(value), -1, null);
+    }
+
+    public int integer(int value) {
+        return this.entry("i" + value, 3, value, -1, null);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return this.entry("n" + name + ":" + descriptor, 12, this.utf8(name), this.utf8(descriptor), null);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        return this.entry(tag + owner + "." + name + ":" + descriptor, tag, this.classRef(owner), this.nameAndType(name, descriptor), null);
+    }
+
+    // code of the method being built
+    private void u1(int value) {
+        this.code.write(value);
+    }
+
+    private void u2(int value) {
+        this.code.write(value >> 8);
+        this.code.write(value);
+    }
+
+    private void stack(int delta) {
+        this.depth += delta;
+        this.maxDepth = Math.max(this.maxDepth, this.depth);
+    }
+
+    public void op(int opcode, int delta) {
+        this.u1(opcode);
+        this.stack(delta);
+    }
+
+    public void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            this.u1(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            this.u1(BIPUSH);
+            this.u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            this.u1(SIPUSH);
+            this.u2(value);
+        } else {
+            this.u1(LDC_W);
+            this.u2(this.integer(value));
+        }
+        this.stack(1);
+    }
+
+    public void ldc(String value) {
+        this.u1(LDC_W);
+        this.u2(this.string(value));
+        this.stack(1);
+    }
+
+    // loads and stores, size is 1 for references and 2 for doubles
+    public void local(int opcode, int index, int delta) {
+        if (index > 0xff) throw new IllegalStateException("Too many locals");
+        this.u1(opcode);
+        this.u1(index);
+        this.stack(delta);
+        this.maxLocals = Math.max(this.maxLocals, index + 2);
+    }
+
+    public void type(int opcode, String name) {
+        this.u1(opcode);
+        this.u2(this.classRef(name));
+    }
+
+    public void field(int opcode, String owner, String name, String descriptor, int delta) {
+        this.u1(opcode);
+        this.u2(this.member(9, owner, name, descriptor));
+        this.stack(delta);
+    }
+
+    public void invoke(int opcode, String owner, String name, String descriptor, int delta) {
+        this.u1(opcode);
+        if (opcode == INVOKEINTERFACE) {
+            this.u2(this.member(11, owner, name, descriptor));
+            // count of argument slots, including receiver
+            this.u1(1 - delta + (descriptor.endsWith(")V") ? 0 : descriptor.endsWith(")D") ? 2 : 1));
+            this.u1(0);
+        } else {
+            this.u2(this.member(10, owner, name, descriptor));
+        }
+        this.stack(delta);
+    }
+
+    public void jump(int opcode, Label label, int delta) {
+        final int position = this.code.size();
+        this.u1(opcode);
+        if (label.position >= 0) {
+            this.u2(label.position - position);
+        } else {
+            label.fixups.add(position);
+            this.u2(0);
+        }
+        this.stack(delta);
+    }
+
+    // stack is always empty at labels
+    public void mark(Label label) {
+        label.position = this.code.size();
+        this.depth = 0;
+    }
+
+    public int size() {
+        return this.code.size();
+    }
+
+    // branch offsets are kept within 16 bits
+    private byte[] finishCode() {
+        byte[] bytes = this.code.toByteArray();
+        if (bytes.length > Short.MAX_VALUE) throw new IllegalStateException("Code too large");
+        return bytes;
+    }
+
+    private static void resolve(byte[] code, Label label) {
+        for (int position : label.fixups) {
+            int offset = label.position - position;
+            code[position + 1] = (byte) (offset >> 8);
+            code[position + 2] = (byte) offset;
+        }
+    }
+
+    // write class with field k, constructor and the method whose code was built,
+    // with all labels that were used
+    public byte[] build(String methodName, String descriptor, int argLocals, List<Label> labels) {
+        byte[] body = this.finishCode();
+        for (Label label : labels) resolve(body, label);
+        int bodyStack = this.maxDepth;
+        int bodyLocals = Math.max(this.maxLocals, argLocals);
+
+        // constructor
+        this.code = new ByteArrayOutputStream();
+        this.depth = this.maxDepth = 0;
+        this.local(ALOAD, 0, 1);
+        this.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", -1);
+        this.local(ALOAD, 0, 1);
+        this.local(ALOAD, 1, 1);
+        this.field(PUTFIELD, this.name, "k", "[Ljava/lang/Object;", -2);
+        this.op(RETURN, 0);
+        byte[] init = this.code.toByteArray();
+
+        try {
+            int thisClass = this.classRef(this.name);
+            int superClass = this.classRef("java/lang/Object");
+            int[] interfaces = new int[this.interfaces.length];
+            for (int i = 0; i < interfaces.length; ++i) interfaces[i] = this.classRef(this.interfaces[i]);
+            int fieldName = this.utf8("k");
+            int fieldType = this.utf8("[Ljava/lang/Object;");
+            int initName = this.utf8("<init>");
+            int initType = this.utf8("([Ljava/lang/Object;)V");
+            int bodyName = this.utf8(methodName);
+            int bodyType = this.utf8(descriptor);
+            int codeName = this.utf8("Code");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(this.poolSize);
+            this.poolOut.flush();
+            out.write(this.pool.toByteArray());
+            // public final synthetic
+            out.writeShort(0x1011);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int index : interfaces) out.writeShort(index);
+            // private final k
+            out.writeShort(1);
+            out.writeShort(0x0012);
+            out.writeShort(fieldName);
+            out.writeShort(fieldType);
+            out.writeShort(0);
+            out.writeShort(2);
+            writeMethod(out, 0x0001, initName, initType, codeName, 3, 2, init);
+            writeMethod(out, 0x0001, bodyName, bodyType, codeName, bodyStack, bodyLocals, body);
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int access, int name, int descriptor, int codeName, int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+}
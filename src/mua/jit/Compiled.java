@@ -0,0 +1,10 @@
+package mua.jit;
+
+import mua.exec.MuaException;
+import mua.exec.Runner;
+import mua.exec.Value;
+
+// code compiled into a class of its own, exec does what runner.execAll(null) does
+public interface Compiled {
+    Value exec(Runner runner) throws MuaException;
+}
@@ -0,0 +1,426 @@
+package mua.jit;
+
+import static mua.jit.Assembler.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import mua.Metrics;
+import mua.ast.CallNode;
+import mua.ast.ListNode;
+import mua.ast.LiteralNode;
+import mua.ast.MathOp;
+import mua.ast.NegateNode;
+import mua.ast.Node;
+import mua.ast.ParenNode;
+import mua.ast.Parser;
+import mua.ast.ReturnNode;
+import mua.ast.ThingNode;
+import mua.exec.Feedback;
+import mua.exec.FunctionVal;
+import mua.exec.MuaException;
+import mua.exec.Operator;
+import mua.exec.Profiler;
+import mua.exec.Scope;
+import mua.token.MathToken;
+import mua.token.Token;
+
+// translates the syntax tree of code into the exec method of a class. calls are laid
+// out by the arities their functions have when compiling, and arguments are kept in
+// locals, so when a check fails the call is finished by the syntax tree from the
+// arguments evaluated so far, and so is everything enclosing it
+class Compiler {
+    private static final String NAME = "mua/jit/CompiledCode";
+    private static final String RUNNER = "mua/exec/Runner";
+    private static final String VALUE = "mua/exec/Value";
+    private static final String SCOPE = "mua/exec/Scope";
+    private static final String FUNCTION = "mua/exec/FunctionVal";
+    private static final String OPERATOR = "mua/exec/Operator";
+    private static final String METRICS = "mua/Metrics";
+    private static final String FEEDBACK = "mua/exec/Feedback";
+    private static final String REFERENCE = "mua/exec/Reference";
+    private static final String NODE = "mua/ast/Node";
+    private static final String CALL_NODE = "mua/ast/CallNode";
+    private static final String JIT = "mua/jit/Jit";
+
+    private static final String EVAL = "(Lmua/exec/Runner;)Lmua/exec/Value;";
+
+    // builtins computed on doubles directly, operands of types seen so far are
+    // converted the fast way
+    private static final Map<String, Integer> ARITHMETIC = Map.of(
+            "add", DADD, "sub", DSUB, "mul", DMUL, "div", DDIV, "mod", DREM);
+
+    // locals of exec, the ones after them hold functions and arguments of calls
+    private static final int RUNNER_LOCAL = 1;
+    private static final int RET = 2;
+    // value of the node whose layout turned out different
+    private static final int DEOPT = 3;
+    private int locals = 4;
+
+    private final Parser parser;
+    private final Scope globalScope;
+    private final Scope localScope;
+
+    private final Assembler asm = new Assembler(NAME, new String[] { "mua/jit/Compiled" });
+    private final List<Object> constants = new ArrayList<>();
+    private final List<Label> labels = new ArrayList<>();
+    // paths leaving the compiled layout, emitted after the rest of the method
+    private final List<Runnable> deopts = new ArrayList<>();
+    private final Map<Node, Integer> ends = new HashMap<>();
+
+    public Compiler(Parser parser, Scope globalScope, Scope localScope) {
+        this.parser = parser;
+        this.globalScope = globalScope;
+        this.localScope = localScope;
+    }
+
+    public Object[] constants() {
+        return this.constants.toArray();
+    }
+
+    public byte[] compile() {
+        Label interpret = this.label();
+        Label done = this.label();
+        // the layout only holds for the environment it was compiled in
+        this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+        this.asm.field(GETFIELD, RUNNER, "globalScope", "L" + SCOPE + ";", 0);
+        this.constant(this.globalScope, SCOPE);
+        this.asm.jump(IF_ACMPNE, interpret, -2);
+        this.asm.op(ACONST_NULL, 1);
+        this.asm.local(ASTORE, RET, -1);
+
+        int index = 0;
+        while (index < this.parser.size()) {
+            Node node = this.parser.node(index);
+            int end = this.end(node);
+            // layout unknown from here on, left to the syntax tree
+            if (end < 0) {
+                this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+                this.asm.iconst(index);
+                this.asm.field(PUTFIELD, RUNNER, "index", "I", -2);
+                this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+                this.asm.local(ALOAD, RET, 1);
+                this.asm.invoke(INVOKEVIRTUAL, RUNNER, "execAll", "(Lmua/exec/Value;)Lmua/exec/Value;", -1);
+                this.asm.op(ARETURN, -1);
+                break;
+            }
+            Label deopt = this.label();
+            if (Metrics.ENABLED) this.asm.invoke(INVOKESTATIC, METRICS, "statement", "()V", 0);
+            // nothing runs after the last statement, or a return at the start of one
+            this.gen(node, false, deopt, end == this.parser.size() || node instanceof ReturnNode);
+            this.asm.local(ASTORE, RET, -1);
+            this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+            this.asm.field(GETFIELD, RUNNER, "shouldReturn", "Z", 0);
+            this.asm.jump(IFNE, done, -1);
+            // statement ended elsewhere, continue with the syntax tree from there
+            this.deopts.add(() -> {
+                this.asm.mark(deopt);
+                this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+                this.asm.local(ALOAD, DEOPT, 1);
+                this.asm.invoke(INVOKEVIRTUAL, RUNNER, "execAll", "(Lmua/exec/Value;)Lmua/exec/Value;", -1);
+                this.asm.op(ARETURN, -1);
+            });
+            index = end;
+        }
+        this.asm.mark(done);
+        this.asm.local(ALOAD, RET, 1);
+        this.asm.op(ARETURN, -1);
+
+        this.asm.mark(interpret);
+        this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+        this.asm.op(ACONST_NULL, 1);
+        this.asm.invoke(INVOKEVIRTUAL, RUNNER, "execAll", "(Lmua/exec/Value;)Lmua/exec/Value;", -1);
+        this.asm.op(ARETURN, -1);
+
+        for (Runnable deopt : this.deopts) deopt.run();
+        return this.asm.build("exec", EVAL, 2, this.labels);
+    }
+
+    private Label label() {
+        Label label = new Label();
+        this.labels.add(label);
+        return label;
+    }
+
+    // push constant of given type, kept in field k
+    private void constant(Object value, String type) {
+        this.constants.add(value);
+        this.asm.local(ALOAD, 0, 1);
+        this.asm.field(GETFIELD, NAME, "k", "[Ljava/lang/Object;", 0);
+        this.asm.iconst(this.constants.size() - 1);
+        this.asm.op(AALOAD, -1);
+        this.asm.type(CHECKCAST, type);
+    }
+
+    // function of given name when compiling, null if there is none
+    private FunctionVal resolve(String name) {
+        try {
+            return Scope.getValue(this.globalScope, this.localScope, name).asFunctionVal();
+        } catch (MuaException e) {
+            return null;
+        }
+    }
+
+    // builtins cannot be overwritten, only shadowed by local variables
+    private boolean builtin(String name) {
+        Scope.Entry entry = this.localScope.get(name);
+        if (entry == null) entry = this.globalScope.get(name);
+        return entry != null && !entry.modifiable;
+    }
+
+    private boolean arithmetic(Node node) {
+        return node instanceof CallNode && !(node instanceof ThingNode) && ARITHMETIC.containsKey(((CallNode) node).name)
+                && this.builtin(((CallNode) node).name) && this.end(node) >= 0;
+    }
+
+    // index after node with the arities functions have now, -1 if unknown
+    private int end(Node node) {
+        Integer end = this.ends.get(node);
+        if (end == null) {
+            end = this.computeEnd(node);
+            this.ends.put(node, end);
+        }
+        return end;
+    }
+
+    private int computeEnd(Node node) {
+        if (node instanceof LiteralNode) return node.start + 1;
+        if (node instanceof ListNode) return ((ListNode) node).end;
+        if (node instanceof ThingNode) return node.start + 2;
+        if (node instanceof ReturnNode) return this.end(((ReturnNode) node).operand);
+        if (node instanceof NegateNode) return this.end(((NegateNode) node).operand);
+        if (node instanceof ParenNode) return this.parenEnd(node.start);
+        if (!(node instanceof CallNode)) return -1;
+        FunctionVal fn = this.resolve(((CallNode) node).name);
+        if (fn == null) return -1;
+        int index = node.start + 1;
+        for (int i = 0; i < fn.paramsCount() && index >= 0; ++i) {
+            index = this.end(this.parser.node(index));
+        }
+        return index;
+    }
+
+    // same walk as ParenNode.run(), assuming no operand gives null
+    private int parenEnd(int start) {
+        int index = start + 1;
+        int opExpectation = 1;
+        try {
+            while (true) {
+                Token token = this.parser.get(index);
+                if (token instanceof MathToken) {
+                    String op = ((MathToken) token).op;
+                    if (op.equals(")")) return index + 1;
+                    boolean negate = op.equals("-") && opExpectation == 1;
+                    if (!op.equals("(") && !negate) {
+                        opExpectation += MathOp.get(op).ops - 1;
+                        ++index;
+                        continue;
+                    }
+                }
+                index = this.end(this.parser.node(index));
+                if (index < 0) return -1;
+                --opExpectation;
+            }
+        } catch (MuaException e) {
+            return -1;
+        }
+    }
+
+    // emit code leaving the value of node on the stack, as a double if asked for, which
+    // only arithmetic builtins give. if node ends elsewhere than expected, its value is
+    // stored in DEOPT and the code at parent finishes what encloses it. calls in tail
+    // position may leave a TailCall
+    private void gen(Node node, boolean number, Label parent, boolean tail) {
+        if (node instanceof LiteralNode) {
+            this.constant(((LiteralNode) node).value, VALUE);
+        } else if (node instanceof ListNode) {
+            this.constant(((ListNode) node).value, VALUE);
+        } else if (node instanceof ReturnNode) {
+            Label deopt = this.label();
+            this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+            this.asm.invoke(INVOKESTATIC, JIT, "checkReturn", "(Lmua/exec/Runner;)V", -1);
+            this.gen(((ReturnNode) node).operand, false, deopt, tail);
+            this.setReturn();
+            this.deopts.add(() -> {
+                this.asm.mark(deopt);
+                this.setReturn();
+                this.asm.jump(GOTO, parent, 0);
+            });
+        } else if (node instanceof NegateNode) {
+            Node operand = ((NegateNode) node).operand;
+            Label deopt = this.label();
+            if (this.arithmetic(operand)) {
+                this.gen(operand, true, deopt, false);
+                this.asm.op(DNEG, 0);
+                this.asm.invoke(INVOKESTATIC, JIT, "box", "(D)Lmua/exec/Value;", -1);
+            } else {
+                this.gen(operand, false, deopt, false);
+                this.asm.invoke(INVOKESTATIC, JIT, "negate", "(Lmua/exec/Value;)Lmua/exec/Value;", 0);
+            }
+            this.deopts.add(() -> {
+                this.asm.mark(deopt);
+                this.asm.local(ALOAD, DEOPT, 1);
+                this.asm.invoke(INVOKESTATIC, JIT, "negate", "(Lmua/exec/Value;)Lmua/exec/Value;", 0);
+                this.asm.local(ASTORE, DEOPT, -1);
+                this.asm.jump(GOTO, parent, 0);
+            });
+        } else if (node instanceof CallNode && !(node instanceof ThingNode)) {
+            this.genCall((CallNode) node, number, parent, tail);
+        } else {
+            // anything else is evaluated by the syntax tree, which tells where it ended
+            this.constant(node, NODE);
+            this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+            this.asm.invoke(INVOKEVIRTUAL, NODE, "eval", EVAL, -1);
+            this.asm.local(ASTORE, DEOPT, -1);
+            this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+            this.asm.field(GETFIELD, RUNNER, "index", "I", 0);
+            this.asm.iconst(this.end(node));
+            this.asm.jump(IF_ICMPNE, parent, -2);
+            this.asm.local(ALOAD, DEOPT, 1);
+        }
+    }
+
+    private void setReturn() {
+        this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+        this.asm.iconst(1);
+        this.asm.field(PUTFIELD, RUNNER, "shouldReturn", "Z", -2);
+    }
+
+    // builtins are checked not to be shadowed, other functions to keep their arity
+    private void genCall(CallNode node, boolean number, Label parent, boolean tail) {
+        final String name = node.name;
+        final FunctionVal fn = this.resolve(name);
+        final int count = fn.paramsCount();
+        final boolean builtin = this.builtin(name);
+        // builtins are called like any function while profiling, so they are counted
+        final boolean inline = builtin && !Profiler.ENABLED;
+        final Integer arithmetic = inline ? ARITHMETIC.get(name) : null;
+
+        Label eval = this.label();
+        final int fnLocal = builtin ? -1 : this.locals++;
+        this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+        this.constant(node.function, REFERENCE);
+        if (builtin) {
+            this.asm.invoke(INVOKESTATIC, JIT, "shadowed", "(Lmua/exec/Runner;Lmua/exec/Reference;)Z", -1);
+            this.asm.jump(IFNE, eval, -1);
+        } else {
+            this.asm.invoke(INVOKESTATIC, JIT, "function", "(Lmua/exec/Runner;Lmua/exec/Reference;)Lmua/exec/FunctionVal;", -1);
+            this.asm.op(DUP, 1);
+            this.asm.local(ASTORE, fnLocal, -1);
+            this.asm.invoke(INVOKEVIRTUAL, FUNCTION, "paramsCount", "()I", 0);
+            this.asm.iconst(count);
+            this.asm.jump(IF_ICMPNE, eval, -2);
+        }
+
+        final int[] slots = new int[count];
+        final boolean[] doubles = new boolean[count];
+        final Label[] finishes = new Label[count];
+        int index = node.start + 1;
+        for (int i = 0; i < count; ++i) {
+            Node arg = this.parser.node(index);
+            doubles[i] = arithmetic != null && this.arithmetic(arg);
+            slots[i] = this.locals;
+            this.locals += doubles[i] ? 2 : 1;
+            finishes[i] = this.label();
+            this.gen(arg, doubles[i], finishes[i], false);
+            if (doubles[i]) {
+                this.asm.local(DSTORE, slots[i], -2);
+            } else {
+                this.asm.local(ASTORE, slots[i], -1);
+            }
+            index = this.end(arg);
+        }
+
+        if (arithmetic != null) {
+            // converted in the same order as the builtin does
+            for (int i = 0; i < 2; ++i) {
+                if (doubles[i]) {
+                    this.asm.local(DLOAD, slots[i], 2);
+                } else {
+                    this.constant(new Feedback(), FEEDBACK);
+                    this.asm.local(ALOAD, slots[i], 1);
+                    this.asm.invoke(INVOKEVIRTUAL, FEEDBACK, "number", "(Lmua/exec/Value;)D", 0);
+                }
+            }
+            this.asm.op(arithmetic, -2);
+            if (!number) this.asm.invoke(INVOKESTATIC, JIT, "box", "(D)Lmua/exec/Value;", -1);
+        } else if (inline && name.equals("if")) {
+            this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+            for (int slot : slots) this.asm.local(ALOAD, slot, 1);
+            this.asm.invoke(INVOKESTATIC, JIT, tail ? "branchTail" : "branch", "(Lmua/exec/Runner;Lmua/exec/Value;Lmua/exec/Value;Lmua/exec/Value;)Lmua/exec/Value;", -3);
+        } else if (inline && fn instanceof Operator) {
+            this.constant(fn, OPERATOR);
+            for (int slot : slots) this.asm.local(ALOAD, slot, 1);
+            this.constant(new Feedback(), FEEDBACK);
+            this.constant(new Feedback(), FEEDBACK);
+            this.asm.invoke(INVOKEVIRTUAL, OPERATOR, "apply", "(Lmua/exec/Value;Lmua/exec/Value;Lmua/exec/Feedback;Lmua/exec/Feedback;)Lmua/exec/Value;", -4);
+        } else {
+            this.loadFunction(fn, fnLocal);
+            this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+            this.asm.field(GETFIELD, RUNNER, "globalScope", "L" + SCOPE + ";", 0);
+            this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+            this.asm.field(GETFIELD, RUNNER, "localScope", "L" + SCOPE + ";", 0);
+            this.array(count, i -> this.asm.local(ALOAD, slots[i], 1));
+            this.asm.invoke(INVOKESTATIC, JIT, "list", "([Lmua/exec/Value;)Ljava/util/List;", 0);
+            this.asm.invoke(INVOKEVIRTUAL, FUNCTION, tail ? "runTail" : "run", "(Lmua/exec/Scope;Lmua/exec/Scope;Ljava/util/List;)Lmua/exec/Value;", -3);
+        }
+
+        this.deopts.add(() -> {
+            // shadowed or different arity, the call is left to the syntax tree entirely
+            this.asm.mark(eval);
+            this.constant(node, NODE);
+            this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+            this.asm.invoke(INVOKEVIRTUAL, NODE, "eval", EVAL, -1);
+            this.asm.local(ASTORE, DEOPT, -1);
+            this.asm.jump(GOTO, parent, 0);
+            // argument i ended elsewhere, finish with the ones before and its value
+            for (int i = 0; i < count; ++i) {
+                final int evaluated = i;
+                this.asm.mark(finishes[i]);
+                this.constant(node, CALL_NODE);
+                this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+                this.loadFunction(fn, fnLocal);
+                this.array(evaluated + 1, j -> {
+                    if (j == evaluated) {
+                        this.asm.local(ALOAD, DEOPT, 1);
+                    } else if (doubles[j]) {
+                        this.asm.local(DLOAD, slots[j], 2);
+                        this.asm.invoke(INVOKESTATIC, JIT, "box", "(D)Lmua/exec/Value;", -1);
+                    } else {
+                        this.asm.local(ALOAD, slots[j], 1);
+                    }
+                });
+                this.asm.invoke(INVOKESTATIC, JIT, "partial", "([Lmua/exec/Value;)Ljava/util/List;", 0);
+                this.asm.local(ALOAD, RUNNER_LOCAL, 1);
+                this.asm.field(GETFIELD, RUNNER, "index", "I", 0);
+                this.asm.invoke(INVOKEVIRTUAL, CALL_NODE, "finish", "(Lmua/exec/Runner;Lmua/exec/FunctionVal;Ljava/util/List;I)Lmua/exec/Value;", -4);
+                this.asm.local(ASTORE, DEOPT, -1);
+                this.asm.jump(GOTO, parent, 0);
+            }
+        });
+    }
+
+    // builtins never change, so they are constants
+    private void loadFunction(FunctionVal fn, int local) {
+        if (local < 0) {
+            this.constant(fn, FUNCTION);
+        } else {
+            this.asm.local(ALOAD, local, 1);
+        }
+    }
+
+    // Value[] with elements pushed by given code
+    private void array(int count, IntConsumer element) {
+        this.asm.iconst(count);
+        this.asm.type(ANEWARRAY, VALUE);
+        for (int i = 0; i < count; ++i) {
+            this.asm.op(DUP, 1);
+            this.asm.iconst(i);
+            element.accept(i);
+            this.asm.op(AASTORE, -3);
+        }
+    }
+}
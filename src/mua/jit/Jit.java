@@ -0,0 +1,104 @@
+package mua.jit;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import mua.Trace;
+import mua.exec.Code;
+import mua.exec.FunctionVal;
+import mua.exec.ListVal;
+import mua.exec.MuaException;
+import mua.exec.NumberVal;
+import mua.exec.Reference;
+import mua.exec.Runner;
+import mua.exec.Value;
+
+// compiles code into bytecode once it has been executed often enough, which covers
+// function bodies and the lists they run. MUA_JIT sets how many executions that is,
+// 0 turns compilation off
+public class Jit {
+    private static final int THRESHOLD = threshold(System.getenv("MUA_JIT"));
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static int threshold(String value) {
+        if (value == null) return 1000;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // execute code with the runner, compiling it first when it just became hot
+    public static Value exec(Runner runner, Code code) throws MuaException {
+        Compiled compiled = code.compiled;
+        if (compiled == null && THRESHOLD > 0 && code.executions >= 0 && ++code.executions >= THRESHOLD) {
+            compiled = code.compiled = compile(code, runner);
+            // never try again if it cannot be compiled
+            if (compiled == null) code.executions = -1;
+        }
+        if (compiled != null) return compiled.exec(runner);
+        return runner.execAll(null);
+    }
+
+    // layout of calls is taken from functions visible to the runner, compiled code
+    // checks that it still holds and falls back to the syntax tree otherwise
+    private static Compiled compile(Code code, Runner runner) {
+        try {
+            Compiler compiler = new Compiler(code.parser, runner.globalScope, runner.localScope);
+            byte[] bytes = compiler.compile();
+            Class<?> cls = LOOKUP.defineHiddenClass(bytes, true).lookupClass();
+            if (Trace.ENABLED) Trace.event(Trace.JIT, code.tokens.size(), bytes.length, null);
+            return (Compiled) cls.getConstructor(Object[].class).newInstance((Object) compiler.constants());
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            if (Trace.ENABLED) Trace.event(Trace.JIT_FAILED, code.tokens.size(), 0, e);
+            return null;
+        }
+    }
+
+    // helpers called by compiled code
+
+    // whether a local variable hides the builtin of given name
+    public static boolean shadowed(Runner runner, Reference reference) {
+        return reference.shadowed(runner.globalScope, runner.localScope);
+    }
+
+    public static FunctionVal function(Runner runner, Reference reference) throws MuaException {
+        return reference.function(runner.globalScope, runner.localScope);
+    }
+
+    public static Value box(double value) {
+        return new NumberVal(value);
+    }
+
+    public static Value negate(Value value) throws MuaException {
+        return new NumberVal(-value.asNumberVal().content);
+    }
+
+    public static List<Value> list(Value[] values) {
+        return Arrays.asList(values);
+    }
+
+    // arguments evaluated so far, for CallNode.finish() to add the rest to
+    public static List<Value> partial(Value[] values) {
+        return new ArrayList<>(Arrays.asList(values));
+    }
+
+    // the `if` builtin
+    public static Value branch(Runner runner, Value cond, Value list1, Value list2) throws MuaException {
+        return Runner.resolve(branchTail(runner, cond, list1, list2));
+    }
+
+    public static Value branchTail(Runner runner, Value cond, Value list1, Value list2) throws MuaException {
+        boolean value = cond.asBooleanVal().content;
+        ListVal branch1 = list1.asListVal();
+        ListVal branch2 = list2.asListVal();
+        return Runner.tailList(runner.globalScope, runner.localScope, value ? branch1 : branch2);
+    }
+
+    public static void checkReturn(Runner runner) throws MuaException {
+        if (!runner.localScope.inFunction) throw new MuaException("Cannot return outside of a function");
+    }
+}
@@ -1,263 +1,329 @@
 package mua.token;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Scanner;
-import java.util.Vector;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
-import mua.Debug;
+import mua.Metrics;
+import mua.Trace;
 import mua.token.BracketToken.Type;
 
+// one pass over the input, each state consumes as many characters as it can at once,
+// and tokens are cut out of the input instead of being built a character at a time
 public class Tokenizer {
     private enum State {
-        INIT, WORD, NUMBER, COLON, LEFT_BRACKET, LIST, LIST_ITEM, OP, ERROR, FINISH, MINUS
+        INIT, WORD, COLON, LIST, LIST_ITEM, OP, ERROR, FINISH
     }
 
-    private static final String WHITESPACES = " \t\n";
-    private static final String TOKEN_BOUNDS = WHITESPACES + "()+-*/%";
-    private static final String WORD_BOUNDS = WHITESPACES;
-    private static final String TOKEN_DELIMITER = " \t\n)";
+    // character classes of ascii characters, others belong to none
+    private static final int WHITESPACE = 1;
+    private static final int TOKEN_BOUND = 2;
+    private static final int NAME = 4;
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (char ch : " \t\n".toCharArray()) CLASSES[ch] |= WHITESPACE | TOKEN_BOUND;
+        for (char ch : "()+-*/%".toCharArray()) CLASSES[ch] |= TOKEN_BOUND;
+        for (char ch : "0123456789abcdefghijklmnopqrstuvwxyz_ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray()) CLASSES[ch] |= NAME;
+    }
+
+    // tokens are immutable, so the ones without a value of their own are shared
+    private static final Token LEFT = new BracketToken(Type.LEFT);
+    private static final Token RIGHT = new BracketToken(Type.RIGHT);
+    private static final Token THING = new OpToken("thing");
+    private static final Token[] MATH = new Token[128];
+
+    static {
+        for (char ch : "()+-*/%".toCharArray()) MATH[ch] = new MathToken(Character.toString(ch));
+    }
 
     // global states
     private State state;
-    private String input;
+    private CharSequence input;
     private int index;
-    private Vector<Token> tokens;
+    private List<Token> tokens;
 
     // state-specific states
-    private StringBuffer buf = null;
+    // start of the token being read, and what of it was read by earlier calls to feed()
+    private int start = 0;
+    private String pending = null;
     private int listLevel = 0;
 
     public Tokenizer() {
         this.state = State.INIT;
-        this.tokens = new Vector<>();
+        this.tokens = new ArrayList<>();
+    }
+
+    private static boolean is(char ch, int cls) {
+        return ch < 128 && (CLASSES[ch] & cls) != 0;
+    }
+
+    // text of the token being read, up to index
+    private String text() {
+        String text = this.input.subSequence(this.start, this.index).toString();
+        if (this.pending != null) {
+            text = this.pending + text;
+            this.pending = null;
+        }
+        return text;
     }
 
     // init state, state before a new token, usually at start of input or after whitespace, not when in list
     private void initState() throws TokenizerException {
-        final char ch = this.input.charAt(this.index);
-        switch (ch) {
-            // whitespaces, igonre
-            case ' ': case '\t': case '\n':
-                this.state = State.INIT;
-                ++this.index;
-                break;
-            // start of word, skip '"'
-            case '"':
-                this.state = State.WORD;
-                this.buf = new StringBuffer();
-                ++this.index;
-                break;
-            // numbers, don't skip
-            case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9':
-                this.state = State.NUMBER;
-                break;
-            // left bracket, don't skip
-            case '[':
-                this.state = State.LEFT_BRACKET;
-                break;
-            // init state is not in list, so error
-            case ']':
-                throw new TokenizerException("Unexpected token ']'!");
-            // skip, enter colon state
-            case ':':
-                ++this.index;
-                this.buf = new StringBuffer();
-                this.tokens.add(new OpToken("thing"));
-                this.state = State.COLON;
-                break;
-            // math tokens are considered separate
-            // '-' can either be a operator or beginning of a negative number, however this cannot be
-            // distinguished at tokenize pass, so '-' must go as a separate token type.
-            // consider the code (foo 1 -2), we don't know whether '-' here is negative of minus
-            // until runtime since foo can take one or two parameter(s).
-            // so at tokenize pass, we treat '-' as math token always
-            case '(': case ')': case '+': case '*': case '/': case '%': case '-':
-                this.state = State.INIT;
-                this.tokens.add(new MathToken(Character.toString(ch)));
-                ++this.index;
-                break;
-            // otherwise
-            default:
-                // alpha, begin of op or bool
-                if ("abcdefghijklmnopqrstuvwxyz".indexOf(ch) != -1) {
-                    this.state = State.OP;
-                    this.buf = new StringBuffer();
-                // otherwise, error
-                } else {
-                    throw new TokenizerException(String.format("Unexcepted character '%c'", ch));
-                }
-                break;
+        final CharSequence input = this.input;
+        final int length = input.length();
+        while (this.index < length) {
+            final char ch = input.charAt(this.index);
+            switch (ch) {
+                // whitespaces, igonre
+                case ' ': case '\t': case '\n':
+                    ++this.index;
+                    break;
+                // start of word, skip '"'
+                case '"':
+                    this.state = State.WORD;
+                    this.start = ++this.index;
+                    return;
+                // numbers, don't skip
+                case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9':
+                    this.number();
+                    break;
+                // left bracket, skip, increase list level, and enter list state
+                case '[':
+                    this.state = State.LIST;
+                    ++this.listLevel;
+                    this.tokens.add(LEFT);
+                    ++this.index;
+                    return;
+                // init state is not in list, so error
+                case ']':
+                    throw new TokenizerException("Unexpected token ']'!");
+                // skip, enter colon state
+                case ':':
+                    this.start = ++this.index;
+                    this.tokens.add(THING);
+                    this.state = State.COLON;
+                    return;
+                // math tokens are considered separate
+                // '-' can either be a operator or beginning of a negative number, however this cannot be
+                // distinguished at tokenize pass, so '-' must go as a separate token type.
+                // consider the code (foo 1 -2), we don't know whether '-' here is negative of minus
+                // until runtime since foo can take one or two parameter(s).
+                // so at tokenize pass, we treat '-' as math token always
+                case '(': case ')': case '+': case '*': case '/': case '%': case '-':
+                    this.tokens.add(MATH[ch]);
+                    ++this.index;
+                    break;
+                // otherwise
+                default:
+                    // alpha, begin of op or bool
+                    if (ch >= 'a' && ch <= 'z') {
+                        this.state = State.OP;
+                        this.start = this.index;
+                        return;
+                    // otherwise, error
+                    } else {
+                        throw new TokenizerException(String.format("Unexcepted character '%c'", ch));
+                    }
+            }
         }
     }
 
     private void wordState() {
-        final char ch = this.input.charAt(this.index);
+        final CharSequence input = this.input;
+        final int length = input.length();
         // ')' is not end of word
-        if (WORD_BOUNDS.indexOf(ch) != -1) {
+        while (this.index < length && !is(input.charAt(this.index), WHITESPACE)) ++this.index;
+        if (this.index < length) {
             this.state = State.INIT;
-            this.tokens.add(new WordToken(buf.toString()));
-            this.buf = null;
-            ++this.index;
-        // else, append char to buf and proceed
-        } else {
-            this.state = State.WORD;
-            this.buf.append(ch);
+            this.tokens.add(new WordToken(this.text()));
             ++this.index;
         }
     }
 
-    private void numberState() throws TokenizerException {
-        // here, we simply let Scanner do the parsing for us, skip necessary characters and append the number
-        try (Scanner scanner = new Scanner(this.input.substring(this.index))) {
-            // stop at end of token
-            scanner.useDelimiter(TOKEN_BOUNDS
-                .chars()
-                .mapToObj((int ch) -> Character.toString((char)ch))
-                .map(Pattern::quote)
-                .collect(Collectors.joining("|")));
-            if (!scanner.hasNextDouble()) {
-                throw new TokenizerException("Unable to parse number");
-            } else {
-                // numbers are converted on demand, stored as string, so next() instead of nextDouble()
-                final String token = scanner.next();
-                this.tokens.add(new WordToken(token));
-                this.state = State.INIT;
-                this.index += token.length();
-            }
-        }
+    // a number goes on to the next token bound, which is never in a later feed
+    private void number() throws TokenizerException {
+        final CharSequence input = this.input;
+        final int length = input.length();
+        int end = this.index;
+        while (end < length && !is(input.charAt(end), TOKEN_BOUND)) ++end;
+        if (!isNumber(input, this.index, end)) throw new TokenizerException("Unable to parse number");
+        // numbers are converted on demand, stored as string
+        this.tokens.add(new WordToken(input.subSequence(this.index, end).toString()));
+        this.index = end;
     }
 
     // almost identical to op state
     private void colonState() throws TokenizerException {
-        char ch = this.input.charAt(this.index);
-        // only alphanumeric and underscore allowed in colon, append to buf
-        if ("0123456789abcdefghijklmnopqrstuvwxyz_ABCDEFGHIJKLMNOPQRSTUVWXYZ".indexOf(ch) != -1) {
-            this.state = State.COLON;
-            this.buf.append(ch);
-            ++this.index;
-        // token end, insert, don't skip
-        } else if (TOKEN_BOUNDS.indexOf(ch) != -1) {
-            this.tokens.add(new WordToken(this.buf.toString()));
-            this.buf = null;
-            this.state = State.INIT;
-        } else {
-            throw new TokenizerException(String.format("Unexcepted character '%c'", ch));
-        }
+        this.nameState(false);
+    }
+
+    private void opState() throws TokenizerException {
+        this.nameState(true);
     }
 
-    private void leftBracketState() {
-        // skip bracket, increase list level, and enter list state
-        this.state = State.LIST;
-        ++this.listLevel;
-        this.tokens.add(new BracketToken(Type.LEFT));
-        ++this.index;
+    // only alphanumeric and underscore allowed in names, token ends at token bounds, which are not skipped
+    private void nameState(boolean op) throws TokenizerException {
+        final CharSequence input = this.input;
+        final int length = input.length();
+        while (this.index < length && is(input.charAt(this.index), NAME)) ++this.index;
+        if (this.index == length) return;
+        final char ch = input.charAt(this.index);
+        if (!is(ch, TOKEN_BOUND)) throw new TokenizerException(String.format("Unexcepted character '%c'", ch));
+        String text = this.text();
+        this.tokens.add(op ? new OpToken(text) : new WordToken(text));
+        this.state = State.INIT;
     }
 
     // begin of list item, or before right bracket
     private void listState() throws TokenizerException {
-        char ch = this.input.charAt(this.index);
-        // stop at word bounds since list items are words without preceding '"'
-        if (WORD_BOUNDS.indexOf(ch) != -1) {
-            this.state = State.LIST;
-            ++this.index;
-        // left bracket, begin of sublist,
-        } else if (ch == '[') {
-            this.state = State.LIST;
-            ++this.listLevel;
-            this.tokens.add(new BracketToken(Type.LEFT));
-            ++this.index;
-        // right bracket, end of list, decrease list level, insert right bracket, skip
-        } else if (ch == ']') {
-            --this.listLevel;
-            if (this.listLevel < 0) throw new TokenizerException("Unmatched brackets!");
-            this.state = this.listLevel == 0 ? State.INIT : State.LIST;
-            this.tokens.add(new BracketToken(Type.RIGHT));
-            ++this.index;
-        // everything else can be begin of word, since list elements don't need preceeding '"'
-        } else {
-            this.state = State.LIST_ITEM;
-            this.buf = new StringBuffer();
-        } 
+        final CharSequence input = this.input;
+        final int length = input.length();
+        while (this.index < length) {
+            final char ch = input.charAt(this.index);
+            // stop at word bounds since list items are words without preceding '"'
+            if (is(ch, WHITESPACE)) {
+                ++this.index;
+            // left bracket, begin of sublist,
+            } else if (ch == '[') {
+                ++this.listLevel;
+                this.tokens.add(LEFT);
+                ++this.index;
+            // right bracket, end of list, decrease list level, insert right bracket, skip
+            } else if (ch == ']') {
+                --this.listLevel;
+                if (this.listLevel < 0) throw new TokenizerException("Unmatched brackets!");
+                this.tokens.add(RIGHT);
+                ++this.index;
+                if (this.listLevel == 0) {
+                    this.state = State.INIT;
+                    return;
+                }
+            // everything else can be begin of word, since list elements don't need preceeding '"'
+            } else {
+                this.state = State.LIST_ITEM;
+                this.start = this.index;
+                return;
+            }
+        }
     }
 
     // inside list item, including before last char
     private void listItemState() {
-        char ch = this.input.charAt(this.index);
+        final CharSequence input = this.input;
+        final int length = input.length();
         // right bracket or whitespace, don't skip, let list state handle it
         // TODO: this won't allow ']' to be in a word in a list, is this the desired behavior?
-        if (ch == ']' || WHITESPACES.indexOf(ch) != -1) {
-            this.state = State.LIST;
-            this.tokens.add(new WordToken(this.buf.toString()));
-            this.buf = null;
-        } else {
-            this.state = State.LIST_ITEM;
-            this.buf.append(ch);
+        while (this.index < length) {
+            final char ch = input.charAt(this.index);
+            if (ch == ']' || is(ch, WHITESPACE)) break;
             ++this.index;
         }
+        if (this.index < length) {
+            this.state = State.LIST;
+            this.tokens.add(new WordToken(this.text()));
+        }
     }
 
-    private void opState() throws TokenizerException {
-        char ch = this.input.charAt(this.index);
-        // only alphanumeric and underscore allowed in op, append to buf
-        if ("0123456789abcdefghijklmnopqrstuvwxyz_ABCDEFGHIJKLMNOPQRSTUVWXYZ".indexOf(ch) != -1) {
-            this.state = State.OP;
-            this.buf.append(ch);
-            ++this.index;
-        // token end, insert, don't skip
-        } else if (TOKEN_BOUNDS.indexOf(ch) != -1) {
-            this.tokens.add(new OpToken(this.buf.toString()));
-            this.buf = null;
-            this.state = State.INIT;
-        } else {
-            throw new TokenizerException(String.format("Unexcepted character '%c'", ch));
+    // numbers are what Scanner.hasNextDouble() accepts in the US locale: digits, grouped
+    // by commas or not, with optional fraction and exponent, or a hexadecimal float.
+    // signs are token bounds, so neither the number nor its exponent can have one
+    static boolean isNumber(CharSequence input, int index, int end) {
+        if (end - index > 2 && input.charAt(index) == '0' && (input.charAt(index + 1) | 0x20) == 'x') {
+            return isHexNumber(input, index + 2, end);
         }
+        int i = digits(input, index, end);
+        if (i < end && input.charAt(i) == ',') {
+            // first group has up to three digits and does not start with zero, the rest three each
+            if (i - index > 3 || input.charAt(index) == '0') return false;
+            while (i < end && input.charAt(i) == ',') {
+                if (digits(input, i + 1, Math.min(i + 4, end)) != i + 4) return false;
+                i += 4;
+            }
+        }
+        if (i < end && input.charAt(i) == '.') i = digits(input, i + 1, end);
+        if (i < end && (input.charAt(i) | 0x20) == 'e') {
+            int exponent = digits(input, i + 1, end);
+            if (exponent == i + 1) return false;
+            i = exponent;
+        }
+        return i == end;
     }
 
-    private void minusState() throws TokenizerException {
-        // TODO: look-forward, possible defects
-        char next = this.input.charAt(this.index + 1);
-        // token bound, append token and skip
-        if (TOKEN_DELIMITER.indexOf(next) != -1) {
-            this.state = State.INIT;
-            this.tokens.add(new MathToken("-"));
-            ++this.index;
-        // digits, part of number
-        } else if ("1234567890".indexOf(next) != -1) {
-            this.state = State.NUMBER;
-        } else throw new TokenizerException(String.format("Unexpected character '%c'", next));
+    // after 0x, a binary exponent is required by Double.parseDouble()
+    private static boolean isHexNumber(CharSequence input, int i, int end) {
+        while (i < end && isHex(input.charAt(i))) ++i;
+        if (i == end || input.charAt(i) != '.') return false;
+        int fraction = ++i;
+        while (i < end && isHex(input.charAt(i))) ++i;
+        if (i == fraction || i == end || (input.charAt(i) | 0x20) != 'p') return false;
+        int exponent = ++i;
+        while (i < end && input.charAt(i) >= '0' && input.charAt(i) <= '9') ++i;
+        return i != exponent && i == end;
+    }
+
+    private static boolean isHex(char ch) {
+        return (ch >= '0' && ch <= '9') || ((ch | 0x20) >= 'a' && (ch | 0x20) <= 'f');
+    }
+
+    // index after the digits from i on
+    private static int digits(CharSequence input, int i, int end) {
+        while (i < end && isDigit(input.charAt(i))) ++i;
+        return i;
     }
 
-    public void feed(String input) throws TokenizerException {
+    // like Scanner, any unicode digit outside of surrogate pairs counts
+    private static boolean isDigit(char ch) {
+        return ch < 128 ? ch >= '0' && ch <= '9' : Character.isDigit(ch);
+    }
+
+    public void feed(CharSequence input) throws TokenizerException {
+        final long start = Metrics.ENABLED ? System.nanoTime() : 0;
         try {
             this.input = input;
             this.index = 0;
+            this.start = 0;
             while (this.index < this.input.length()) {
                 switch (this.state) {
                     case INIT: this.initState(); break;
                     case WORD: this.wordState(); break;
-                    case NUMBER: this.numberState(); break;
                     case COLON: this.colonState(); break;
-                    case LEFT_BRACKET: this.leftBracketState(); break;
                     case LIST: this.listState(); break;
                     case LIST_ITEM: this.listItemState(); break;
                     case OP: this.opState(); break;
-                    case MINUS: this.minusState(); break;
                     default: throw new TokenizerException("Invalid tokenizer state!");
                 }
             }
+            // token continues in the next feed
+            switch (this.state) {
+                case WORD: case COLON: case LIST_ITEM: case OP:
+                    this.pending = this.text();
+                    break;
+                default:
+                    break;
+            }
+            if (Metrics.ENABLED) Metrics.tokenized(input.length(), System.nanoTime() - start);
         } catch (TokenizerException e) {
             this.state = State.ERROR;
             throw e;
         }
     }
 
+    // tokens read so far that were not taken yet, none while a list or token is left
+    // unfinished, so that code can run as its input comes in
+    public List<Token> take() {
+        if (this.state != State.INIT || this.tokens.isEmpty()) return Collections.emptyList();
+        List<Token> tokens = this.tokens;
+        this.tokens = new ArrayList<>();
+        return tokens;
+    }
+
     public List<Token> finish() throws TokenizerException {
         if (this.state != State.INIT) {
             throw new TokenizerException("Malformed input!");
         }
-        this.buf = null;
+        this.pending = null;
         this.input = null;
         this.state = State.FINISH;
         return this.tokens;
@@ -267,7 +333,7 @@ public class Tokenizer {
         Tokenizer tokenizer = new Tokenizer();
         tokenizer.feed(input);
         List<Token> tokens = tokenizer.finish();
-        Debug.log("tokens: ", tokens, "\n");
+        if (Trace.ENABLED) Trace.event(Trace.TOKENIZE, input.length(), tokens.size(), tokens);
         return tokens;
     }
 
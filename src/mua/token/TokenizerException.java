@@ -1,9 +1,12 @@
 package mua.token;
 
+import mua.Metrics;
+
 public class TokenizerException extends Exception {
     private static final long serialVersionUID = 1L;
 
     public TokenizerException(final String msg) {
         super(msg);
+        if (Metrics.ENABLED) Metrics.exception();
     }
 }
\ No newline at end of file
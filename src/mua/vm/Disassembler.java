@@ -0,0 +1,54 @@
+package mua.vm;
+
+import java.util.List;
+import java.util.Scanner;
+
+import mua.exec.ListVal;
+import mua.exec.Value;
+import mua.token.Token;
+import mua.token.Tokenizer;
+
+public class Disassembler {
+    public static String disassemble(Program program) {
+        StringBuilder buf = new StringBuilder();
+        for (int pc = 0; pc < program.code.length; ++pc) {
+            buf.append(disassemble(program, pc)).append('\n');
+        }
+        return buf.toString();
+    }
+
+    // single instruction at pc
+    public static String disassemble(Program program, int pc) {
+        StringBuilder buf = new StringBuilder();
+        final int instruction = program.code[pc];
+        final int opcode = Opcode.opcode(instruction);
+        final int operand = Opcode.operand(instruction);
+        buf.append(String.format("%04d  %-8s", pc, opcode < Opcode.NAMES.length ? Opcode.NAMES[opcode] : "???"));
+        switch (opcode) {
+            case Opcode.PUSH:
+            {
+                Value value = program.constants[operand];
+                buf.append(String.format("#%d %s", operand, value instanceof ListVal ? value : "\"" + value));
+                break;
+            }
+            case Opcode.THING: case Opcode.CALL: case Opcode.MATH: case Opcode.ERROR:
+                buf.append(program.names[operand]);
+                break;
+            default:
+                break;
+        }
+        return buf.toString().trim();
+    }
+
+    // print instructions of code read from input, for debugging
+    public static void main(String[] args) throws Exception {
+        try (Scanner scanner = new Scanner(System.in)) {
+            StringBuffer sb = new StringBuffer();
+            while (scanner.hasNextLine()) {
+                sb.append(scanner.nextLine()).append('\n');
+            }
+            List<Token> tokens = Tokenizer.tokenize(sb.toString());
+            System.out.print(Disassembler.disassemble(Program.compile(tokens)));
+        }
+    }
+}
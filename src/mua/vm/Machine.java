@@ -0,0 +1,320 @@
+package mua.vm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import mua.Metrics;
+import mua.ast.MathOp;
+import mua.exec.FunctionVal;
+import mua.exec.MuaException;
+import mua.exec.NumberVal;
+import mua.exec.Profiler;
+import mua.exec.Reference;
+import mua.exec.Scope;
+import mua.exec.TailCall;
+import mua.exec.Value;
+
+// runs a program in a single dispatch loop, instead of recursing into each value,
+// the values still pending (function arguments, operands) are kept in frames, and a
+// finished value is delivered to the innermost pending frame. code run by functions,
+// `if` and `run` is given back as a TailCall and run on the same loop, suspending the
+// caller in an activation unless the call is in tail position
+public class Machine {
+    private static final int CALL = 0;
+    private static final int NEGATE = 1;
+    private static final int RETURN = 2;
+    private static final int PAREN = 3;
+
+    // code of a caller, suspended until the code it called finishes
+    private static class Activation {
+        public final Program program;
+        public final Scope localScope;
+        public final int pc;
+        public final int frameBase;
+        public final boolean shouldReturn;
+        public final Value retVal;
+        public final boolean profiled;
+
+        public Activation(Program program, Scope localScope, int pc, int frameBase, boolean shouldReturn, Value retVal, boolean profiled) {
+            this.program = program;
+            this.localScope = localScope;
+            this.pc = pc;
+            this.frameBase = frameBase;
+            this.shouldReturn = shouldReturn;
+            this.retVal = retVal;
+            this.profiled = profiled;
+        }
+    }
+
+    private final Scope globalScope;
+    // code being run
+    private Program program;
+    private Scope localScope;
+    // frames below belong to callers
+    private int frameBase = 0;
+
+    private Activation[] activations = new Activation[8];
+    private int ap = 0;
+
+    // operand stack, holding collected arguments and operands of expressions
+    private Value[] stack = new Value[16];
+    private int sp = 0;
+
+    // pending frames, for calls count is the number of missing arguments, for
+    // expressions it is the opExpectation (see ParenNode)
+    private int[] kinds = new int[8];
+    private int[] bases = new int[8];
+    private int[] counts = new int[8];
+    private int[] opBases = new int[8];
+    private FunctionVal[] functions = new FunctionVal[8];
+    private int fp = 0;
+
+    // pending operators of expressions
+    private MathOp[] ops = new MathOp[8];
+    private int opSp = 0;
+
+    private boolean shouldReturn = false;
+    private Value retVal = null;
+    // whether a profiler frame was entered for the code being run
+    private boolean profiled = false;
+
+    public Machine(Scope globalScope, Scope localScope, Program program) {
+        this.globalScope = globalScope;
+        this.localScope = localScope;
+        this.program = program;
+    }
+
+    private void push(Value value) {
+        if (this.sp == this.stack.length) this.stack = Arrays.copyOf(this.stack, this.sp * 2);
+        this.stack[this.sp++] = value;
+    }
+
+    private void pushFrame(int kind, int count, FunctionVal fn) {
+        if (this.fp == this.kinds.length) {
+            int length = this.fp * 2;
+            this.kinds = Arrays.copyOf(this.kinds, length);
+            this.bases = Arrays.copyOf(this.bases, length);
+            this.counts = Arrays.copyOf(this.counts, length);
+            this.opBases = Arrays.copyOf(this.opBases, length);
+            this.functions = Arrays.copyOf(this.functions, length);
+        }
+        this.kinds[this.fp] = kind;
+        this.bases[this.fp] = this.sp;
+        this.counts[this.fp] = count;
+        this.opBases[this.fp] = this.opSp;
+        this.functions[this.fp] = fn;
+        ++this.fp;
+    }
+
+    private boolean inParen() {
+        return this.fp > this.frameBase && this.kinds[this.fp - 1] == PAREN;
+    }
+
+    // whether nothing of the current code runs after the value being delivered, at
+    // most returns are pending then
+    private boolean ending(int pc) {
+        for (int i = this.frameBase; i < this.fp; ++i) {
+            if (this.kinds[i] != RETURN) return false;
+        }
+        return this.fp > this.frameBase || this.shouldReturn || pc == this.program.code.length;
+    }
+
+    private void suspend(int pc) {
+        if (this.ap == this.activations.length) this.activations = Arrays.copyOf(this.activations, this.ap * 2);
+        this.activations[this.ap++] = new Activation(this.program, this.localScope, pc, this.frameBase, this.shouldReturn, this.retVal, this.profiled);
+        if (Metrics.ENABLED) Metrics.enter();
+    }
+
+    // evaluate all operators of innermost expression with priority >= priorityThres
+    private void collapse(int priorityThres) throws MuaException {
+        final int base = this.bases[this.fp - 1];
+        final int opBase = this.opBases[this.fp - 1];
+        while (this.opSp > opBase && this.ops[this.opSp - 1].priority >= priorityThres) {
+            MathOp op = this.ops[--this.opSp];
+            if (this.sp == base) throw new MuaException("Not enough operands");
+            Value op2 = this.stack[--this.sp];
+            if (this.sp == base) {
+                // operand 2 is converted before operand 1 is found missing
+                op2.asNumberVal();
+                throw new MuaException("Not enough operands");
+            }
+            this.stack[this.sp - 1] = op.calc(this.stack[this.sp - 1], op2);
+        }
+    }
+
+    private void pushOp(MathOp op) throws MuaException {
+        this.collapse(op.threshold());
+        if (this.opSp == this.ops.length) this.ops = Arrays.copyOf(this.ops, this.opSp * 2);
+        this.ops[this.opSp++] = op;
+        this.counts[this.fp - 1] += op.ops - 1;
+    }
+
+    // run statements until the end or a return, value of last statement is returned
+    public Value run() throws MuaException {
+        int[] code = this.program.code;
+        Value[] constants = this.program.constants;
+        String[] names = this.program.names;
+        int pc = 0;
+        dispatch:
+        while (true) {
+            Value value;
+            if (this.fp == this.frameBase && (this.shouldReturn || pc == code.length)) {
+                // code finished, its value goes on to the caller
+                if (this.profiled) {
+                    Profiler.exit();
+                    this.profiled = false;
+                }
+                if (this.ap == 0) return this.retVal;
+                if (Metrics.ENABLED) Metrics.exit();
+                value = this.retVal;
+                Activation caller = this.activations[--this.ap];
+                this.activations[this.ap] = null;
+                this.program = caller.program;
+                this.localScope = caller.localScope;
+                this.frameBase = caller.frameBase;
+                this.shouldReturn = caller.shouldReturn;
+                this.retVal = caller.retVal;
+                this.profiled = caller.profiled;
+                code = this.program.code;
+                constants = this.program.constants;
+                names = this.program.names;
+                pc = caller.pc;
+            } else {
+                if (pc == code.length) throw new MuaException("Unexpected end of input");
+                // a statement starts with nothing pending
+                if (Metrics.ENABLED && this.fp == this.frameBase) Metrics.statement();
+                final int instruction = code[pc++];
+                switch (Opcode.opcode(instruction)) {
+                    case Opcode.PUSH:
+                        value = constants[Opcode.operand(instruction)];
+                        break;
+                    case Opcode.THING:
+                    case Opcode.CALL:
+                    {
+                        Reference reference = this.program.references[Opcode.operand(instruction)];
+                        if (Opcode.opcode(instruction) == Opcode.THING) {
+                            if (!this.program.thing.shadowed(this.globalScope, this.localScope)) {
+                                value = reference.value(this.globalScope, this.localScope);
+                                // skip push of the name
+                                ++pc;
+                                break;
+                            }
+                            // shadowed, call it like any other function with the name as argument
+                            reference = this.program.thing;
+                        }
+                        FunctionVal fn = reference.function(this.globalScope, this.localScope);
+                        if (fn.paramsCount() != 0) {
+                            this.pushFrame(CALL, fn.paramsCount(), fn);
+                            continue;
+                        }
+                        value = fn.runTail(this.globalScope, this.localScope, Collections.emptyList());
+                        break;
+                    }
+                    case Opcode.RETURN:
+                        if (!this.localScope.inFunction) throw new MuaException("Cannot return outside of a function");
+                        this.pushFrame(RETURN, 1, null);
+                        continue;
+                    case Opcode.LPAREN:
+                        this.pushFrame(PAREN, 1, null);
+                        continue;
+                    case Opcode.RPAREN:
+                    {
+                        if (!this.inParen()) throw new MuaException("Unexpected token \")\"");
+                        this.collapse(0);
+                        if (this.sp - this.bases[this.fp - 1] != 1 || this.opSp != this.opBases[this.fp - 1])
+                            throw new MuaException("Malformed mathematical expression");
+                        value = this.stack[--this.sp];
+                        --this.fp;
+                        break;
+                    }
+                    case Opcode.MINUS:
+                        // negate outside of parens, or when an operand is expected
+                        if (!this.inParen() || this.counts[this.fp - 1] == 1) {
+                            this.pushFrame(NEGATE, 1, null);
+                        } else {
+                            this.pushOp(MathOp.get("-"));
+                        }
+                        continue;
+                    case Opcode.MATH:
+                        if (!this.inParen()) throw new MuaException("Math expressions must be within parentheses");
+                        this.pushOp(MathOp.get(names[Opcode.operand(instruction)]));
+                        continue;
+                    case Opcode.ERROR:
+                        throw new MuaException(names[Opcode.operand(instruction)]);
+                    default:
+                        throw new MuaException(String.format("Invalid instruction %08x", instruction));
+                }
+            }
+            // deliver value to pending frames, finishing those that are complete
+            while (true) {
+                if (value instanceof TailCall) {
+                    TailCall call = (TailCall) value;
+                    if (this.ending(pc)) {
+                        // the current code is done but for its returns, replace it
+                        this.fp = this.frameBase;
+                        if (this.profiled) Profiler.exit();
+                    } else {
+                        this.suspend(pc);
+                    }
+                    this.profiled = Profiler.ENABLED && call.name != null;
+                    if (this.profiled) Profiler.enter(call.name);
+                    this.program = call.code.program();
+                    this.localScope = call.localScope;
+                    this.frameBase = this.fp;
+                    this.shouldReturn = false;
+                    this.retVal = null;
+                    code = this.program.code;
+                    constants = this.program.constants;
+                    names = this.program.names;
+                    pc = 0;
+                    continue dispatch;
+                }
+                if (this.fp == this.frameBase) {
+                    this.retVal = value;
+                    break;
+                }
+                final int top = this.fp - 1;
+                if (this.kinds[top] == PAREN) {
+                    // values that are null are not pushed, see ParenNode
+                    if (value != null) {
+                        this.push(value);
+                        --this.counts[top];
+                    }
+                    break;
+                } else if (this.kinds[top] == CALL) {
+                    this.push(value);
+                    if (--this.counts[top] != 0) break;
+                    final int base = this.bases[top];
+                    List<Value> params = Arrays.asList(Arrays.copyOfRange(this.stack, base, this.sp));
+                    Arrays.fill(this.stack, base, this.sp, null);
+                    this.sp = base;
+                    FunctionVal fn = this.functions[top];
+                    this.functions[top] = null;
+                    --this.fp;
+                    value = fn.runTail(this.globalScope, this.localScope, params);
+                } else if (this.kinds[top] == NEGATE) {
+                    --this.fp;
+                    value = new NumberVal(-value.asNumberVal().content);
+                } else {
+                    --this.fp;
+                    this.shouldReturn = true;
+                }
+            }
+        }
+    }
+
+    public static Value exec(Scope globalScope, Scope localScope, Program program) throws MuaException {
+        Machine machine = new Machine(globalScope, localScope, program);
+        if (!Profiler.ENABLED && !Metrics.ENABLED) return machine.run();
+        // frames of the code an exception leaves unfinished
+        int depth = Profiler.ENABLED ? Profiler.depth() : 0;
+        int nested = Metrics.ENABLED ? Metrics.depth() : 0;
+        try {
+            return machine.run();
+        } finally {
+            if (Profiler.ENABLED) Profiler.unwind(depth);
+            if (Metrics.ENABLED) Metrics.unwind(nested);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package mua.vm;
+
+// an instruction is a single int, opcode in the low byte and operand in the rest
+public class Opcode {
+    // push constant
+    public static final int PUSH = 0;
+    // `:name` or `thing "name`, operand is index of name, always followed by the push
+    // of the name, which is skipped unless `thing` is shadowed
+    public static final int THING = 1;
+    // resolve function by name and start collecting its arguments
+    public static final int CALL = 2;
+    // return the next value
+    public static final int RETURN = 3;
+    public static final int LPAREN = 4;
+    public static final int RPAREN = 5;
+    // negate or subtract, decided at runtime by the expression it's in
+    public static final int MINUS = 6;
+    // binary operator, operand is index of the operator
+    public static final int MATH = 7;
+    // throw, operand is index of the message
+    public static final int ERROR = 8;
+
+    public static final String[] NAMES = {
+        "PUSH", "THING", "CALL", "RETURN", "LPAREN", "RPAREN", "MINUS", "MATH", "ERROR"
+    };
+
+    public static int encode(int opcode, int operand) {
+        return opcode | (operand << 8);
+    }
+
+    public static int opcode(int instruction) {
+        return instruction & 0xff;
+    }
+
+    public static int operand(int instruction) {
+        return instruction >>> 8;
+    }
+}
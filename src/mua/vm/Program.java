@@ -0,0 +1,147 @@
+package mua.vm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mua.exec.ListVal;
+import mua.exec.LiteralVal;
+import mua.exec.Reference;
+import mua.exec.Value;
+import mua.token.BracketToken;
+import mua.token.MathToken;
+import mua.token.OpToken;
+import mua.token.Token;
+import mua.token.WordToken;
+import mua.token.BracketToken.Type;
+
+// code compiled for the Machine, one instruction per token, except that a list
+// literal becomes a single push of a constant
+public class Program {
+    public final int[] code;
+    // values pushed, shared by all executions since they are immutable
+    public final Value[] constants;
+    // function and variable names, operators and error messages
+    public final String[] names;
+    // the names looked up as variables, where they were found last time
+    public final Reference[] references;
+    // `thing` is looked up for every variable, to tell if a function shadows it. one
+    // per program rather than one for all, which machines on other threads would
+    // keep writing to
+    public final Reference thing = new Reference("thing");
+
+    private Program(int[] code, Value[] constants, String[] names) {
+        this.code = code;
+        this.constants = constants;
+        this.names = names;
+        this.references = new Reference[names.length];
+        for (int i = 0; i < names.length; ++i) this.references[i] = new Reference(names[i]);
+    }
+
+    private static class Builder {
+        private final Token[] tokens;
+        private int[] code = new int[16];
+        private int size = 0;
+        private final List<Value> constants = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> nameIndices = new HashMap<>();
+
+        public Builder(List<Token> tokens) {
+            this.tokens = tokens.toArray(new Token[0]);
+        }
+
+        private void emit(int opcode, int operand) {
+            if (this.size == this.code.length) {
+                int[] code = new int[this.size * 2];
+                System.arraycopy(this.code, 0, code, 0, this.size);
+                this.code = code;
+            }
+            this.code[this.size++] = Opcode.encode(opcode, operand);
+        }
+
+        private int constant(Value value) {
+            this.constants.add(value);
+            return this.constants.size() - 1;
+        }
+
+        private int name(String name) {
+            Integer index = this.nameIndices.get(name);
+            if (index == null) {
+                index = this.names.size();
+                this.names.add(name);
+                this.nameIndices.put(name, index);
+            }
+            return index;
+        }
+
+        // index at left bracket, returns index after matching right bracket, or -1 if
+        // the list contains unexpected tokens, in which case an error is emitted
+        private int list(int start, List<Value> elements) {
+            int index = start + 1;
+            for (; index < this.tokens.length; ++index) {
+                Token token = this.tokens[index];
+                if (token instanceof WordToken) {
+                    elements.add(new LiteralVal(((WordToken) token).value));
+                } else if (token instanceof BracketToken) {
+                    if (((BracketToken) token).type == Type.RIGHT) break;
+                    List<Value> sublist = new ArrayList<>();
+                    int end = this.list(index, sublist);
+                    if (end == -1) return -1;
+                    elements.add(new ListVal(sublist));
+                    index = end - 1;
+                } else {
+                    this.emit(Opcode.ERROR, this.name(String.format("Unexpected token: %s", token)));
+                    return -1;
+                }
+            }
+            return index + 1;
+        }
+
+        public Program build() {
+            int index = 0;
+            while (index < this.tokens.length) {
+                Token token = this.tokens[index];
+                if (token instanceof WordToken) {
+                    this.emit(Opcode.PUSH, this.constant(new LiteralVal(((WordToken) token).value)));
+                } else if (token instanceof BracketToken && ((BracketToken) token).type == Type.LEFT) {
+                    List<Value> elements = new ArrayList<>();
+                    int end = this.list(index, elements);
+                    // nothing after the error can be reached
+                    if (end == -1) break;
+                    this.emit(Opcode.PUSH, this.constant(new ListVal(elements)));
+                    index = end;
+                    continue;
+                } else if (token instanceof OpToken) {
+                    String name = ((OpToken) token).name;
+                    if (name.equals("return")) {
+                        this.emit(Opcode.RETURN, 0);
+                    } else if (name.equals("thing") && index + 1 < this.tokens.length && this.tokens[index + 1] instanceof WordToken) {
+                        this.emit(Opcode.THING, this.name(((WordToken) this.tokens[index + 1]).value));
+                    } else {
+                        this.emit(Opcode.CALL, this.name(name));
+                    }
+                } else if (token instanceof MathToken) {
+                    String op = ((MathToken) token).op;
+                    switch (op) {
+                        case "(": this.emit(Opcode.LPAREN, 0); break;
+                        case ")": this.emit(Opcode.RPAREN, 0); break;
+                        case "-": this.emit(Opcode.MINUS, 0); break;
+                        default: this.emit(Opcode.MATH, this.name(op)); break;
+                    }
+                } else {
+                    this.emit(Opcode.ERROR, this.name(String.format("Unexpected token: %s", token)));
+                    break;
+                }
+                ++index;
+            }
+            int[] code = new int[this.size];
+            System.arraycopy(this.code, 0, code, 0, this.size);
+            return new Program(code, this.constants.toArray(new Value[0]), this.names.toArray(new String[0]));
+        }
+    }
+
+    public static Program compile(List<Token> tokens) {
+        return new Builder(tokens).build();
+    }
+}